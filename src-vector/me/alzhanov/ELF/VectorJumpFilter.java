@@ -0,0 +1,53 @@
+package me.alzhanov.ELF;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link JumpFilter} on the Vector API, loaded by {@link JumpFilter#INSTANCE} when the incubator module is present.
+ * This source root is left out of the default build, since it needs {@code javac --add-modules jdk.incubator.vector}.
+ * <p>
+ * The words are taken a vector at a time. The opcodes are masked out in every lane at once and compared with those of
+ * JAL and the branches, and both the J and B immediates of every lane are decoded with lane-wise shifts and masks, the
+ * B ones being blended in where the lane is a branch. Only the lanes of the resulting mask, usually a few, are then
+ * stored one at a time. The words after the last whole vector go through {@link JumpFilter#filter}.
+ */
+final class VectorJumpFilter implements JumpFilter {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public int filter(int[] words, int length, int[] positions, int[] offsets) {
+        int[] lanes = new int[SPECIES.length()];
+        int found = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            IntVector word = IntVector.fromArray(SPECIES, words, i);
+            IntVector opcode = word.and((1 << 7) - 1);
+            // funct3 010 and 011 are no branches and are printed as unknown
+            VectorMask<Integer> branch = opcode.eq(0b1100011).and(word.and(0x6000).compare(VectorOperators.NE, 0x2000));
+            VectorMask<Integer> jump = opcode.eq(0b1101111).or(branch);
+            if (!jump.anyTrue()) continue;
+            // The sign of both immediates is bit 31.
+            IntVector sign = word.lanewise(VectorOperators.ASHR, 31);
+            // imm[10:1] from bits 30:21, imm[11] from bit 20, imm[19:12] in place.
+            IntVector jOffset = word.lanewise(VectorOperators.LSHR, 20).and(0x7FE)
+                    .or(word.lanewise(VectorOperators.LSHR, 9).and(0x800))
+                    .or(word.and(0xFF000))
+                    .or(sign.lanewise(VectorOperators.LSHL, 20));
+            // imm[4:1] from bits 11:8, imm[10:5] from bits 30:25, imm[11] from bit 7.
+            IntVector bOffset = word.lanewise(VectorOperators.LSHR, 7).and(0x1E)
+                    .or(word.lanewise(VectorOperators.LSHR, 20).and(0x7E0))
+                    .or(word.lanewise(VectorOperators.LSHL, 4).and(0x800))
+                    .or(sign.lanewise(VectorOperators.LSHL, 12));
+            jOffset.blend(bOffset, branch).intoArray(lanes, 0);
+            for (long bits = jump.toLong(); bits != 0; bits &= bits - 1) {
+                int lane = Long.numberOfTrailingZeros(bits);
+                positions[found] = i + lane;
+                offsets[found++] = lanes[lane];
+            }
+        }
+        return JumpFilter.filter(words, i, length, positions, offsets, found);
+    }
+}
@@ -1,31 +1,364 @@
+import me.alzhanov.ELF.AddressSymbolizer;
+import me.alzhanov.ELF.ArArchive;
+import me.alzhanov.ELF.ChannelWriter;
+import me.alzhanov.ELF.DecoderSweep;
+import me.alzhanov.ELF.DisassemblyServer;
+import me.alzhanov.ELF.FunctionDiff;
+import me.alzhanov.ELF.InstructionPattern;
+import me.alzhanov.ELF.Interpreter;
+import me.alzhanov.ELF.IsaExtension;
+import me.alzhanov.ELF.IsaRegistry;
+import me.alzhanov.ELF.InstructionStatistics;
+import me.alzhanov.ELF.ParallelGzipChannel;
 import me.alzhanov.ELF.RISCVDisassembler;
+import me.alzhanov.ELF.SampleHistogram;
+import me.alzhanov.ELF.SymbolTableDump;
 import net.fornwall.jelf.ElfFile;
+import net.fornwall.jelf.ElfSymbol;
 
 import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
+    private static void printUsage() {
+        System.err.println("Usage: [--range <from>:<to> | --symbol <name> | --pipeline] [--gzip [--gzip-index <index file>]] <input file> [<output file>]");
+        System.err.println("       --isa <ISA string, such as rv32imafd_zicsr_zba, or extension list> overrides .riscv.attributes");
+        System.err.println("       Every member of an ar archive input file is disassembled under its own header, in parallel.");
+        System.err.println("       Labels are found with the Vector API when src-vector is compiled in and java runs with --add-modules jdk.incubator.vector.");
+        System.err.println("       --symtab [--sort address|size|name] [--type <type>] [--bind <binding>] [--shndx <index>] <input file> [<output file>]");
+        System.err.println("       --find <pattern>[;<pattern>...] <input file> [<output file>]");
+        System.err.println("       --annotate <sample file> [--sample-format u32|u64|text] [--threshold <percent of samples per function>] <input file> [<output file>]");
+        System.err.println("       --stats [--json] <input file> [<output file>]");
+        System.err.println("       --diff <old input file> <new input file> [<output file>]");
+        System.err.println("       --server [<port> [<root directory the served files must be under>]]");
+        System.err.println("       [--isa <ISA string>] --sweep [<first word>:<last word>]");
+        System.err.println("       --symbolize <input file> [<address file> [<output file>]], addresses read from stdin without an address file");
+        System.err.println("       --call <function or address>[,<argument>...] [--limit <instructions>] [--interpret] <input file>");
+    }
+
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.err.println("Usage: <input file> [<output file>]");
+        String range = null;
+        List<IsaExtension> isa = null;
+        String symbol = null;
+        boolean gzip = false;
+        String gzipIndex = null;
+        boolean symtab = false;
+        boolean diff = false;
+        boolean stats = false;
+        boolean pipeline = false;
+        String samples = null;
+        SampleHistogram.Format sampleFormat = null;
+        double threshold = 0;
+        List<InstructionPattern> patterns = new ArrayList<>();
+        boolean json = false;
+        int sortOrder = SymbolTableDump.SORT_NONE;
+        int symbolType = SymbolTableDump.ANY;
+        int symbolBinding = SymbolTableDump.ANY;
+        int symbolSection = SymbolTableDump.ANY;
+        int argi = 0;
+        try {
+            while (argi < args.length && args[argi].startsWith("--")) {
+                switch (args[argi]) {
+                    case "--server":
+                        runServer(argi + 1 < args.length ? parsePort(args[argi + 1]) : DisassemblyServer.DEFAULT_PORT,
+                                argi + 2 < args.length ? Paths.get(args[argi + 2]) : null);
+                        return;
+                    case "--sweep":
+                        runSweep(argi + 1 < args.length ? args[argi + 1] : null, isa);
+                        return;
+                    case "--symbolize":
+                        runSymbolize(args[argi + 1], argi + 2 < args.length ? args[argi + 2] : null,
+                                argi + 3 < args.length ? args[argi + 3] : null);
+                        return;
+                    case "--call": {
+                        String function = args[++argi];
+                        long limit = Long.MAX_VALUE;
+                        boolean translate = true;
+                        while (args[++argi].startsWith("--")) {
+                            if (args[argi].equals("--limit")) {
+                                limit = Long.decode(args[++argi]);
+                            } else if (args[argi].equals("--interpret")) {
+                                translate = false;
+                            } else {
+                                printUsage();
+                                return;
+                            }
+                        }
+                        runCall(function, limit, translate, args[argi]);
+                        return;
+                    }
+                    case "--range":
+                        range = ++argi < args.length ? args[argi] : null;
+                        break;
+                    case "--symbol":
+                        symbol = ++argi < args.length ? args[argi] : null;
+                        break;
+                    case "--find":
+                        for (String pattern : args[++argi].split(";")) patterns.add(InstructionPattern.compile(pattern));
+                        break;
+                    case "--isa":
+                        isa = IsaRegistry.parse(args[++argi], true);
+                        break;
+                    case "--annotate":
+                        samples = args[++argi];
+                        break;
+                    case "--sample-format":
+                        sampleFormat = SampleHistogram.Format.parse(args[++argi]);
+                        break;
+                    case "--threshold":
+                        threshold = Double.parseDouble(args[++argi]);
+                        break;
+                    case "--pipeline":
+                        pipeline = true;
+                        break;
+                    case "--stats":
+                        stats = true;
+                        break;
+                    case "--json":
+                        json = true;
+                        break;
+                    case "--diff":
+                        diff = true;
+                        break;
+                    case "--symtab":
+                        symtab = true;
+                        break;
+                    case "--sort":
+                        sortOrder = SymbolTableDump.parseSortOrder(args[++argi]);
+                        break;
+                    case "--type":
+                        symbolType = SymbolTableDump.parseType(args[++argi]);
+                        break;
+                    case "--bind":
+                        symbolBinding = SymbolTableDump.parseBinding(args[++argi]);
+                        break;
+                    case "--shndx":
+                        symbolSection = Integer.decode(args[++argi]);
+                        break;
+                    case "--gzip":
+                        gzip = true;
+                        break;
+                    case "--gzip-index":
+                        gzip = true;
+                        gzipIndex = args[++argi];
+                        break;
+                    default:
+                        printUsage();
+                        return;
+                }
+                argi++;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            printUsage();
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
             return;
         }
+        int inputCount = diff ? 2 : 1;
+        if (args.length - argi < inputCount || (range != null && range.indexOf(':') == -1)) {
+            printUsage();
+            return;
+        }
+        String inputFile = args[argi];
+        String outputFile = args.length - argi > inputCount ? args[argi + inputCount] : null;
+        ArArchive.Renderer renderer = renderer(isa, patterns, stats, json, symtab, symbolType, symbolBinding,
+                symbolSection, sortOrder, range, symbol, pipeline, samples, sampleFormat, threshold);
         try {
-            OutputStreamWriter output = null;
-            try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(args[0]))) {
-                if (args.length > 1) {
-                    output = new OutputStreamWriter(new FileOutputStream(args[1]));
+            ChannelWriter output = null;
+            try {
+                MappedByteBuffer input = map(inputFile);
+                FileChannel outputChannel = outputFile != null ? ChannelWriter.openFile(Paths.get(outputFile)) : ChannelWriter.stdout();
+                if (gzip) {
+                    output = new ChannelWriter(new ParallelGzipChannel(outputChannel, gzipIndex != null ? Paths.get(gzipIndex) : null));
+                } else {
+                    output = new ChannelWriter(outputChannel);
+                }
+                PrintWriter writer = new PrintWriter(output);
+                if (diff) {
+                    FunctionDiff.compare(new RISCVDisassembler(ElfFile.from(input), isa), new RISCVDisassembler(open(args[argi + 1]), isa)).write(writer);
+                } else if (ArArchive.isArchive(input)) {
+                    ArArchive.read(input).render(writer, renderer);
                 } else {
-                    output = new OutputStreamWriter(System.out);
+                    renderer.render(ElfFile.from(input), writer);
                 }
-                RISCVDisassembler disassembler = new RISCVDisassembler(ElfFile.from(stream));
-                disassembler.doDisassemble(new PrintWriter(output));
+                writer.flush();
             } finally {
                 if (output != null) {
                     output.close();
                 }
             }
-        } catch (FileNotFoundException e) {
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.err.println("File is not found.");
+        } catch (InputMismatchException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns what to print for one ELF file, which is either the input file or a member of the input archive.
+     */
+    private static ArArchive.Renderer renderer(List<IsaExtension> isa, List<InstructionPattern> patterns, boolean stats,
+                                               boolean json, boolean symtab, int symbolType, int symbolBinding,
+                                               int symbolSection, int sortOrder, String range, String symbol,
+                                               boolean pipeline, String samples, SampleHistogram.Format sampleFormat,
+                                               double threshold) {
+        return (elfFile, writer) -> {
+            RISCVDisassembler disassembler = new RISCVDisassembler(elfFile, isa);
+            if (!patterns.isEmpty()) {
+                disassembler.findInstructions(writer, patterns);
+            } else if (stats) {
+                InstructionStatistics statistics = disassembler.collectStatistics();
+                if (json) {
+                    statistics.writeJson(writer);
+                } else {
+                    statistics.writeText(writer);
+                }
+            } else if (symtab) {
+                new SymbolTableDump(elfFile, elfFile.getSymbolTableSection()).write(writer, symbolType, symbolBinding, symbolSection, sortOrder);
+            } else if (range != null) {
+                int colon = range.indexOf(':');
+                disassembler.disassembleRange(writer, Long.decode(range.substring(0, colon)), Long.decode(range.substring(colon + 1)));
+            } else if (symbol != null) {
+                disassembler.disassembleSymbol(writer, symbol);
+            } else if (samples != null) {
+                SampleHistogram histogram = disassembler.textHistogram();
+                boolean elf64 = elfFile.objectSize == ElfFile.CLASS_64;
+                histogram.read(Paths.get(samples), sampleFormat != null ? sampleFormat : SampleHistogram.detect(Paths.get(samples), elf64),
+                        elfFile.encoding == ElfFile.DATA_LSB ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                disassembler.annotate(writer, histogram, threshold);
+            } else if (pipeline) {
+                disassembler.disassemblePipelined(writer, Math.max(1, Runtime.getRuntime().availableProcessors() - 2));
+            } else {
+                disassembler.doDisassemble(writer);
+            }
+        };
+    }
+
+    private static MappedByteBuffer map(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static ElfFile open(String path) throws IOException {
+        return ElfFile.from(map(path));
+    }
+
+    /**
+     * Runs the decoder of the extensions, the default ones if null, over the range of instruction words, all of them by
+     * default, and exits with status 1 if any of them fails a check.
+     */
+    private static void runSweep(String range, List<IsaExtension> isa) {
+        long first = 0;
+        long last = DecoderSweep.WORD_COUNT - 1;
+        if (range != null) {
+            int colon = range.indexOf(':');
+            if (colon == -1) {
+                printUsage();
+                return;
+            }
+            first = Long.decode(range.substring(0, colon));
+            last = Long.decode(range.substring(colon + 1));
+        }
+        PrintWriter out = new PrintWriter(System.out);
+        DecoderSweep sweep = DecoderSweep.run(first, last, isa, ForkJoinPool.commonPool(), new PrintWriter(System.err));
+        sweep.write(out);
+        out.flush();
+        if (sweep.failureCount() != 0) System.exit(1);
+    }
+
+    /**
+     * Prints the symbol of each address of the address file, or of stdin, in the style of addr2line.
+     */
+    private static void runSymbolize(String inputFile, String addressFile, String outputFile) {
+        try {
+            AddressSymbolizer symbolizer = new AddressSymbolizer(open(inputFile));
+            long[] addresses;
+            try (BufferedReader in = new BufferedReader(addressFile != null ? new FileReader(addressFile) : new InputStreamReader(System.in))) {
+                addresses = AddressSymbolizer.readAddresses(in);
+            }
+            try (ChannelWriter output = outputFile != null ? ChannelWriter.toFile(Paths.get(outputFile)) : ChannelWriter.toStdout()) {
+                PrintWriter writer = new PrintWriter(output);
+                symbolizer.write(writer, addresses);
+                writer.flush();
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.err.println("File is not found.");
+        } catch (InputMismatchException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Calls a function of the executable in the interpreter, the function and its arguments given as
+     * {@code <name or address>,<argument>,...}, and prints what it returns with the instructions executed. Hot code is
+     * translated to JVM bytecode unless translate is false.
+     */
+    private static void runCall(String call, long limit, boolean translate, String inputFile) {
+        String[] parts = call.split(",");
+        int[] arguments = new int[parts.length - 1];
+        for (int i = 0; i < arguments.length; i++) arguments[i] = Long.decode(parts[i + 1].trim()).intValue();
+        try {
+            ElfFile file = open(inputFile);
+            long address;
+            if (Character.isDigit(parts[0].charAt(0))) {
+                address = Long.decode(parts[0]);
+            } else {
+                ElfSymbol function = file.getELFSymbol(parts[0]);
+                if (function == null) {
+                    System.err.println("Symbol " + parts[0] + " is not found.");
+                    return;
+                }
+                address = function.st_value;
+            }
+            Interpreter interpreter = new Interpreter(file);
+            if (!translate) interpreter.setTranslationThreshold(0);
+            long start = System.nanoTime();
+            int result = interpreter.call((int) address, limit, arguments);
+            long nanos = Math.max(1, System.nanoTime() - start);
+            long count = interpreter.getInstructionCount();
+            System.out.printf("%s(%s) = %d (0x%08X)%n", parts[0], String.join(", ", Arrays.copyOfRange(parts, 1, parts.length)), result, result);
+            System.err.printf("%d instructions in %.3f s, %.1f M instructions/s%n", count, nanos / 1e9, count * 1e3 / nanos);
+        } catch (FileNotFoundException | NoSuchFileException e) {
             System.err.println("File is not found.");
+        } catch (InputMismatchException | IllegalStateException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int parsePort(String port) {
+        try {
+            int value = Integer.parseInt(port);
+            if (value >= 0 && value <= 0xFFFF) return value;
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid port: " + port);
+    }
+
+    private static void runServer(int port, Path root) {
+        try {
+            DisassemblyServer server = new DisassemblyServer(port, DisassemblyServer.DEFAULT_CACHE_SIZE, root);
+            server.start();
+            System.err.println("Listening on http://127.0.0.1:" + server.getPort() + "/");
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,92 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfFile;
+import net.fornwall.jelf.ElfSymbolIndex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Symbolizes addresses such as the PC samples of a profiler in bulk, reading and writing them as addr2line does: the
+ * input is hexadecimal addresses with or without 0x, separated by white space, and the output is a line per address in
+ * the style of {@code addr2line -a -f -p}, {@code 0x00010074: main+0x4 at ??:?}, without the source lines the file
+ * has no debug information for.
+ */
+public final class AddressSymbolizer {
+    private final ElfSymbolIndex index;
+    private final boolean class32;
+    private final int addressDigits;
+    /** The names of the symbol ids, read when first printed. */
+    private final String[] names;
+
+    public AddressSymbolizer(ElfFile file) {
+        index = file.symbolIndex();
+        class32 = file.objectSize == ElfFile.CLASS_32;
+        addressDigits = class32 ? 8 : 16;
+        names = new String[index.size()];
+    }
+
+    /**
+     * Reads the addresses up to the end of the input.
+     */
+    public static long[] readAddresses(BufferedReader in) throws IOException {
+        long[] addresses = new long[1024];
+        int count = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            for (String token : line.trim().split("\\s+")) {
+                if (token.isEmpty()) continue;
+                if (token.startsWith("0x") || token.startsWith("0X")) token = token.substring(2);
+                if (count == addresses.length) addresses = Arrays.copyOf(addresses, count * 2);
+                try {
+                    addresses[count++] = Long.parseUnsignedLong(token, 16);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a hexadecimal address: " + token);
+                }
+            }
+        }
+        return Arrays.copyOf(addresses, count);
+    }
+
+    /**
+     * Symbolizes the addresses in parallel and writes a line for each of them, in their order. The addresses of a
+     * 32-bit file are taken modulo 2^32.
+     */
+    public void write(PrintWriter out, long[] addresses) {
+        int[] ids = new int[addresses.length];
+        long[] offsets = new long[addresses.length];
+        long[] keys = addresses;
+        if (class32) {
+            // The symbol values of ELFCLASS32 are read sign-extended.
+            keys = new long[addresses.length];
+            for (int i = 0; i < addresses.length; i++) keys[i] = (int) addresses[i];
+        }
+        index.symbolize(keys, ids, offsets);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < addresses.length; i++) {
+            line.setLength(0);
+            String address = Long.toHexString(class32 ? addresses[i] & 0xFFFFFFFFL : addresses[i]);
+            line.append("0x");
+            for (int digit = address.length(); digit < addressDigits; digit++) line.append('0');
+            line.append(address).append(": ");
+            if (ids[i] == -1) {
+                line.append("?? ??:0");
+            } else {
+                line.append(name(ids[i]));
+                if (offsets[i] != 0) line.append("+0x").append(Long.toHexString(offsets[i]));
+                line.append(" at ??:?");
+            }
+            out.println(line);
+        }
+    }
+
+    private String name(int id) {
+        if (names[id] == null) {
+            String name = index.symbol(id).getName();
+            names[id] = name == null || name.isEmpty() ? "??" : name;
+        }
+        return names[id];
+    }
+}
@@ -0,0 +1,232 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfException;
+import net.fornwall.jelf.ElfFile;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A static library in the common {@code ar} format, as written by GNU and BSD {@code ar}.
+ * <p>
+ * The archive is read in place: every member is a slice of the buffer the archive was read from, typically a mapped
+ * file, and can be handed to {@link ElfFile#from(java.nio.ByteBuffer)} without being copied or extracted. The symbol
+ * index members ({@code /} and {@code /SYM64/}) are skipped, and names longer than the 16 bytes of a header are
+ * resolved through the GNU long-name member ({@code //}) or the BSD {@code #1/<length>} convention.
+ */
+public final class ArArchive {
+    private static final byte[] MAGIC = "!<arch>\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 60;
+    private static final int NAME_SIZE = 16;
+    private static final int SIZE_OFFSET = 48;
+    private static final int SIZE_SIZE = 10;
+
+    public static final class Member {
+        public final String name;
+        /** The contents of the member, a read-only view of the archive. */
+        public final ByteBuffer data;
+
+        Member(String name, ByteBuffer data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Renders one member of an archive, see {@link #render(PrintWriter, Renderer, ForkJoinPool)}.
+     */
+    public interface Renderer {
+        void render(ElfFile file, PrintWriter out) throws IOException;
+    }
+
+    /** The output of one member, or the reason it was skipped. */
+    private static final class Rendered {
+        final String text;
+        final String error;
+
+        Rendered(String text, String error) {
+            this.text = text;
+            this.error = error;
+        }
+    }
+
+    private final List<Member> members;
+
+    private ArArchive(List<Member> members) {
+        this.members = Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Returns whether the remaining bytes of the buffer start with the archive magic.
+     */
+    public static boolean isArchive(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the member table of the archive in the remaining bytes of the buffer. The position of the buffer is left
+     * alone.
+     */
+    public static ArArchive read(ByteBuffer buffer) {
+        if (!isArchive(buffer)) throw new InputMismatchException("Not an ar archive.");
+        ByteBuffer archive = buffer.slice().asReadOnlyBuffer();
+        List<Member> members = new ArrayList<>();
+        ByteBuffer longNames = null;
+        int offset = MAGIC.length;
+        while (offset + HEADER_SIZE <= archive.limit()) {
+            if (archive.get(offset + 58) != '`' || archive.get(offset + 59) != '\n') {
+                throw new InputMismatchException(String.format("Bad ar member header at 0x%X", offset));
+            }
+            String rawName = ascii(archive, offset, NAME_SIZE).trim();
+            long size = parseSize(archive, offset);
+            int dataOffset = offset + HEADER_SIZE;
+            if (size > archive.limit() - dataOffset) {
+                throw new InputMismatchException(String.format("ar member at 0x%X runs past the end of the archive", offset));
+            }
+            ByteBuffer data = slice(archive, dataOffset, (int) size);
+            // Members start at even offsets.
+            offset = dataOffset + (int) size + (int) (size & 1);
+
+            if (rawName.equals("/") || rawName.equals("/SYM64/") || rawName.startsWith("__.SYMDEF")) {
+                continue;
+            }
+            if (rawName.equals("//")) {
+                longNames = data;
+                continue;
+            }
+            String name;
+            if (rawName.startsWith("#1/")) {
+                int length = parseDecimal(rawName, rawName.substring(3));
+                if (length > data.limit()) throw new InputMismatchException("ar member name runs past its data: " + rawName);
+                name = ascii(data, 0, length);
+                int end = name.indexOf('\0');
+                if (end != -1) name = name.substring(0, end);
+                data = slice(data, length, data.limit() - length);
+                if (name.startsWith("__.SYMDEF")) continue;
+            } else if (rawName.startsWith("/")) {
+                if (longNames == null) throw new InputMismatchException("ar long name without a name table: " + rawName);
+                name = longName(longNames, parseDecimal(rawName, rawName.substring(1)));
+            } else {
+                name = rawName.endsWith("/") ? rawName.substring(0, rawName.length() - 1) : rawName;
+            }
+            members.add(new Member(name, data));
+        }
+        return new ArArchive(members);
+    }
+
+    private static String longName(ByteBuffer table, int start) {
+        if (start >= table.limit()) throw new InputMismatchException("ar long name outside the name table: /" + start);
+        int end = start;
+        while (end < table.limit() && table.get(end) != '\n') end++;
+        if (end > start && table.get(end - 1) == '/') end--;
+        return ascii(table, start, end - start);
+    }
+
+    private static long parseSize(ByteBuffer archive, int header) {
+        String field = ascii(archive, header + SIZE_OFFSET, SIZE_SIZE).trim();
+        try {
+            return Long.parseLong(field);
+        } catch (NumberFormatException e) {
+            throw new InputMismatchException(String.format("Bad ar member size at 0x%X: %s", header, field));
+        }
+    }
+
+    private static int parseDecimal(String rawName, String field) {
+        try {
+            return Integer.parseInt(field.trim());
+        } catch (NumberFormatException e) {
+            throw new InputMismatchException("Bad ar member name: " + rawName);
+        }
+    }
+
+    private static String ascii(ByteBuffer buffer, int offset, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) chars[i] = (char) (buffer.get(offset + i) & 0xFF);
+        return new String(chars);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice();
+    }
+
+    public List<Member> members() {
+        return members;
+    }
+
+    /**
+     * Renders every member on the pool and writes the results in archive order, each under a {@code <name>:} header.
+     * At most twice as many members as the pool has threads are rendered ahead of the one being written, so memory use
+     * does not depend on the size of the archive. Members that are not ELF files, or that the renderer rejects, are
+     * reported on standard error and skipped.
+     */
+    public void render(PrintWriter out, Renderer renderer, ForkJoinPool pool) throws IOException {
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<Future<Rendered>> pending = new ArrayDeque<>();
+        try {
+            for (Member member : members) {
+                if (pending.size() == window) write(out, pending.poll());
+                pending.add(pool.submit(() -> render(member, renderer)));
+            }
+            while (!pending.isEmpty()) write(out, pending.poll());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering archive members", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IllegalStateException("Failed to render archive member", cause);
+        } finally {
+            for (Future<Rendered> future : pending) future.cancel(true);
+        }
+    }
+
+    public void render(PrintWriter out, Renderer renderer) throws IOException {
+        render(out, renderer, ForkJoinPool.commonPool());
+    }
+
+    private static Rendered render(Member member, Renderer renderer) throws IOException {
+        StringWriter buffer = new StringWriter();
+        PrintWriter writer = new PrintWriter(buffer);
+        writer.println();
+        writer.printf("%s:%n", member.name);
+        if (!isElf(member.data)) return new Rendered(null, member.name + ": not an ELF file, skipped.");
+        try {
+            renderer.render(ElfFile.from(member.data), writer);
+        } catch (ElfException | InputMismatchException e) {
+            return new Rendered(null, member.name + ": " + e.getMessage());
+        }
+        writer.flush();
+        return new Rendered(buffer.toString(), null);
+    }
+
+    private static boolean isElf(ByteBuffer data) {
+        return data.limit() >= 4 && data.getInt(0) == 0x7F454C46;
+    }
+
+    private static void write(PrintWriter out, Future<Rendered> result) throws InterruptedException, ExecutionException {
+        Rendered rendered = result.get();
+        if (rendered.error != null) {
+            out.flush();
+            System.err.println(rendered.error);
+        } else {
+            out.write(rendered.text);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package me.alzhanov.ELF;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link Writer} that puts characters straight into large direct byte buffers and hands them to a channel with
+ * gathering writes, skipping the charset encoder and the stream layers of an {@link java.io.OutputStreamWriter}.
+ * <p>
+ * The disassembly is ASCII, so every character below 0x80 is stored as one byte. Anything else (a symbol name read
+ * from the string table, say) is encoded as UTF-8. Like the other writers it is not meant for concurrent use; wrap it
+ * in a {@link java.io.PrintWriter} for formatting.
+ */
+public final class ChannelWriter extends Writer {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private final GatheringByteChannel channel;
+    private final ByteBuffer[] buffers;
+    /** The buffer being filled; the ones before it are full. */
+    private int current;
+    /** A high surrogate waiting for the low surrogate of the next write. */
+    private char pendingHighSurrogate;
+
+    public ChannelWriter(GatheringByteChannel channel, int bufferSize, int bufferCount) {
+        if (bufferSize < 4 || bufferCount <= 0)
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize + " or count " + bufferCount);
+        this.channel = channel;
+        buffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public ChannelWriter(GatheringByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /** Creates or truncates the file. */
+    public static FileChannel openFile(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** The standard output of the process, bypassing {@link System#out}. */
+    public static FileChannel stdout() {
+        return new FileOutputStream(FileDescriptor.out).getChannel();
+    }
+
+    public static ChannelWriter toFile(Path path) throws IOException {
+        return new ChannelWriter(openFile(path));
+    }
+
+    public static ChannelWriter toStdout() {
+        return new ChannelWriter(stdout());
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ByteBuffer buffer = buffers[current];
+        if (c < 0x80 && pendingHighSurrogate == 0 && buffer.hasRemaining()) {
+            buffer.put((byte) c);
+        } else {
+            writeChar((char) c);
+        }
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset, end = offset + length; i < end; ) {
+            ByteBuffer buffer = buffers[current];
+            // Copy the ASCII run that fits into the current buffer in one go.
+            int limit = Math.min(end, i + buffer.remaining());
+            if (pendingHighSurrogate == 0) {
+                while (i < limit && chars[i] < 0x80) buffer.put((byte) chars[i++]);
+            }
+            if (i < end) writeChar(chars[i++]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        for (int i = offset, end = offset + length; i < end; ) {
+            ByteBuffer buffer = buffers[current];
+            int limit = Math.min(end, i + buffer.remaining());
+            if (pendingHighSurrogate == 0) {
+                char c;
+                while (i < limit && (c = str.charAt(i)) < 0x80) {
+                    buffer.put((byte) c);
+                    i++;
+                }
+            }
+            if (i < end) writeChar(str.charAt(i++));
+        }
+    }
+
+    /** The slow path: a full buffer or a non-ASCII character. */
+    private void writeChar(char c) throws IOException {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                reserve(4);
+                ByteBuffer buffer = buffers[current];
+                buffer.put((byte) (0xF0 | codePoint >>> 18));
+                buffer.put((byte) (0x80 | (codePoint >>> 12 & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint >>> 6 & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                return;
+            }
+            writeReplacement();
+        }
+        if (c < 0x80) {
+            reserve(1);
+            buffers[current].put((byte) c);
+        } else if (c < 0x800) {
+            reserve(2);
+            ByteBuffer buffer = buffers[current];
+            buffer.put((byte) (0xC0 | c >>> 6));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeReplacement();
+        } else {
+            reserve(3);
+            ByteBuffer buffer = buffers[current];
+            buffer.put((byte) (0xE0 | c >>> 12));
+            buffer.put((byte) (0x80 | (c >>> 6 & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void writeReplacement() throws IOException {
+        reserve(1);
+        buffers[current].put((byte) '?');
+    }
+
+    /** Makes sure the current buffer has room for the bytes of one character, so it is never split. */
+    private void reserve(int bytes) throws IOException {
+        if (buffers[current].remaining() >= bytes) return;
+        if (current + 1 < buffers.length) {
+            current++;
+        } else {
+            drain();
+        }
+    }
+
+    /** Writes out every filled buffer with gathering writes and starts over with the first one. */
+    private void drain() throws IOException {
+        for (int i = 0; i <= current; i++) buffers[i].flip();
+        while (buffers[current].hasRemaining()) {
+            channel.write(buffers, 0, current + 1);
+        }
+        for (int i = 0; i <= current; i++) buffers[i].clear();
+        current = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                writeReplacement();
+            }
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.*;
+
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Intra-procedural control-flow graphs of the functions in a code section.
+ * <p>
+ * Functions are seeded from the {@link ElfSymbol#STT_FUNC} symbols of the section and each is built as an independent
+ * task. Within a function, basic blocks are numbered in address order and edges are stored as compressed adjacency
+ * arrays. Calls (JAL/JALR with a link register) fall through, jumps and branches leaving the function have no edge, and
+ * JALR without a link register (returns and indirect jumps) ends a block with no successors.
+ */
+public final class ControlFlowGraph {
+
+    public static final class Function {
+        public final String name;
+        public final long address;
+        public final long size;
+        /** Start address of each block, ascending. */
+        private final long[] blockStart;
+        /** Exclusive end address of each block. */
+        private final long[] blockEnd;
+        /** Successors of block b are successors[successorStart[b]] until successors[successorStart[b + 1]]. */
+        private final int[] successorStart;
+        private final int[] successors;
+        private final int[] predecessorStart;
+        private final int[] predecessors;
+
+        Function(String name, long address, long size, long[] blockStart, long[] blockEnd, int[] successorStart, int[] successors) {
+            this.name = name;
+            this.address = address;
+            this.size = size;
+            this.blockStart = blockStart;
+            this.blockEnd = blockEnd;
+            this.successorStart = successorStart;
+            this.successors = successors;
+
+            int blocks = blockStart.length;
+            predecessorStart = new int[blocks + 1];
+            for (int successor : successors) predecessorStart[successor + 1]++;
+            for (int b = 0; b < blocks; b++) predecessorStart[b + 1] += predecessorStart[b];
+            predecessors = new int[successors.length];
+            int[] filled = Arrays.copyOf(predecessorStart, blocks);
+            for (int b = 0; b < blocks; b++) {
+                for (int i = successorStart[b]; i < successorStart[b + 1]; i++) {
+                    predecessors[filled[successors[i]]++] = b;
+                }
+            }
+        }
+
+        public int blockCount() {
+            return blockStart.length;
+        }
+
+        public long blockStart(int block) {
+            return blockStart[block];
+        }
+
+        public long blockEnd(int block) {
+            return blockEnd[block];
+        }
+
+        public int successorCount(int block) {
+            return successorStart[block + 1] - successorStart[block];
+        }
+
+        public int successor(int block, int i) {
+            return successors[successorStart[block] + i];
+        }
+
+        public int predecessorCount(int block) {
+            return predecessorStart[block + 1] - predecessorStart[block];
+        }
+
+        public int predecessor(int block, int i) {
+            return predecessors[predecessorStart[block] + i];
+        }
+
+        /**
+         * Returns the block containing the address, or -1 if the address is outside the function.
+         */
+        public int blockAt(long address) {
+            int block = Arrays.binarySearch(blockStart, address);
+            if (block < 0) block = -block - 2;
+            return (block >= 0 && address < blockEnd[block]) ? block : -1;
+        }
+
+        @Override
+        public String toString() {
+            return "Function[name=" + name + ", address=0x" + Long.toHexString(address) + ", blocks=" + blockCount() + ", edges=" + successors.length + "]";
+        }
+    }
+
+    private final Function[] functions;
+    private final long[] functionAddress;
+
+    private ControlFlowGraph(Function[] functions) {
+        this.functions = functions;
+        this.functionAddress = new long[functions.length];
+        for (int i = 0; i < functions.length; i++) functionAddress[i] = functions[i].address;
+    }
+
+    /** The functions of the graph in address order. */
+    public List<Function> functions() {
+        return Collections.unmodifiableList(Arrays.asList(functions));
+    }
+
+    /**
+     * Returns the function containing the address, or null if there is none.
+     */
+    public Function functionAt(long address) {
+        int i = Arrays.binarySearch(functionAddress, address);
+        if (i < 0) i = -i - 2;
+        return (i >= 0 && address < functions[i].address + functions[i].size) ? functions[i] : null;
+    }
+
+    static ControlFlowGraph build(RISCVDisassembler disassembler, ElfSection section, ForkJoinPool pool) {
+        ElfFile file = disassembler.file;
+        List<ElfRelocationSection> relocations = disassembler.findRelocations(section);
+        disassembler.materializeSections();
+        TreeMap<Long, ElfSymbol> seeds = findFunctions(file, section);
+
+        List<Callable<Function>> tasks = new ArrayList<>();
+        long sectionEnd = section.header.address + section.header.size;
+        for (Map.Entry<Long, ElfSymbol> seed : seeds.entrySet()) {
+            long address = seed.getKey();
+            long size = Math.min(seed.getValue().st_size, sectionEnd - address);
+            String name = seed.getValue().getName();
+            tasks.add(() -> buildFunction(disassembler, section, relocations, name, address, size));
+        }
+        Function[] functions = new Function[tasks.size()];
+        int i = 0;
+        try {
+            for (Future<Function> future : pool.invokeAll(tasks)) {
+                functions[i++] = future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building control-flow graph", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to build control-flow graph", e.getCause());
+        }
+        return new ControlFlowGraph(functions);
+    }
+
+    /**
+     * The {@link ElfSymbol#STT_FUNC} symbols with a size defined in the section, by address. Where several symbols
+     * share an address the first one found is kept.
+     */
+    static TreeMap<Long, ElfSymbol> findFunctions(ElfFile file, ElfSection section) {
+        TreeMap<Long, ElfSymbol> functions = new TreeMap<>();
+        for (ElfSymbolTableSection table : new ElfSymbolTableSection[]{file.getSymbolTableSection(), file.getDynamicSymbolTableSection()}) {
+            if (table == null) continue;
+            for (ElfSymbol symbol : table.symbols) {
+                int shndx = symbol.st_shndx & 0xFFFF;
+                if (symbol.getType() != ElfSymbol.STT_FUNC || symbol.st_size <= 0 || shndx == 0 || shndx >= file.num_sh) continue;
+                if (file.getSection(shndx) != section) continue;
+                long address = file.e_type == ElfFile.ET_REL ? section.header.address + symbol.st_value : symbol.st_value;
+                functions.putIfAbsent(address, symbol);
+            }
+        }
+        return functions;
+    }
+
+    private static Function buildFunction(RISCVDisassembler disassembler, ElfSection section, List<ElfRelocationSection> relocations,
+                                          String name, long address, long size) {
+        IntBuffer code = section.contentsAsInts();
+        long base = section.header.address;
+        int words = (int) (size >>> 2);
+        int firstWord = (int) ((address - base) >>> 2);
+        long end = address + ((long) words << 2);
+
+        // Pass 1: mark block leaders.
+        boolean[] leader = new boolean[words + 1];
+        long[] target = new long[words];
+        leader[0] = true;
+        for (int w = 0; w < words; w++) {
+            int instruction = code.get(firstWord + w);
+            int kind = classify(instruction);
+            long pc = address + ((long) w << 2);
+            if (kind == BRANCH || kind == JUMP) {
+                int offset = kind == BRANCH ? RISCVDisassembler.getOffsetForBType(instruction) : RISCVDisassembler.getOffsetForJType(instruction);
+                target[w] = disassembler.getJumpTarget(section, relocations, pc - base, offset);
+                if (target[w] >= address && target[w] < end && (target[w] & 3) == 0) leader[(int) ((target[w] - address) >>> 2)] = true;
+                leader[w + 1] = true;
+            } else if (kind == RETURN) {
+                leader[w + 1] = true;
+            }
+        }
+
+        // Pass 2: blocks between consecutive leaders.
+        int blocks = 0;
+        for (int w = 0; w < words; w++) if (leader[w]) blocks++;
+        long[] blockStart = new long[blocks];
+        long[] blockEnd = new long[blocks];
+        int[] lastWord = new int[blocks];
+        for (int w = 0, b = -1; w < words; w++) {
+            if (leader[w]) blockStart[++b] = address + ((long) w << 2);
+            blockEnd[b] = address + ((long) (w + 1) << 2);
+            lastWord[b] = w;
+        }
+
+        // Pass 3: edges from the last instruction of each block.
+        int[] successorStart = new int[blocks + 1];
+        int[] successors = new int[blocks * 2];
+        int edges = 0;
+        for (int b = 0; b < blocks; b++) {
+            successorStart[b] = edges;
+            int w = lastWord[b];
+            int kind = classify(code.get(firstWord + w));
+            if (kind == BRANCH || kind == JUMP) {
+                long to = target[w];
+                if (to >= address && to < end && (to & 3) == 0) {
+                    successors[edges++] = blockOf(blockStart, to);
+                }
+            }
+            if (kind != JUMP && kind != RETURN && b + 1 < blocks) {
+                if (edges == successorStart[b] || successors[edges - 1] != b + 1) successors[edges++] = b + 1;
+            }
+        }
+        successorStart[blocks] = edges;
+        return new Function(name, address, size, blockStart, blockEnd, successorStart, Arrays.copyOf(successors, edges));
+    }
+
+    private static int blockOf(long[] blockStart, long address) {
+        int block = Arrays.binarySearch(blockStart, address);
+        return block >= 0 ? block : -block - 2;
+    }
+
+    private static final int OTHER = 0;
+    /** B-type conditional branch. */
+    private static final int BRANCH = 1;
+    /** JAL without a link register. */
+    private static final int JUMP = 2;
+    /** JALR without a link register. */
+    private static final int RETURN = 3;
+
+    private static int classify(int instruction) {
+        int opcode = instruction & ((1 << 7) - 1);
+        int rd = instruction >> 7 & ((1 << 5) - 1);
+        if (opcode == 0b1100011) return BRANCH;
+        if (opcode == 0b1101111 && rd == 0) return JUMP;
+        if (opcode == 0b1100111 && rd == 0) return RETURN;
+        return OTHER;
+    }
+}
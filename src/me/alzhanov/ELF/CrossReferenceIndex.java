@@ -0,0 +1,236 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.*;
+
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Cross references between instructions and the addresses they transfer control to, collected from JAL, B-type
+ * instructions and AUIPC+JALR pairs of the executable sections of a file.
+ * <p>
+ * Each reference is packed into a single long as {@code target << 32 | source | kind}, which works because the
+ * disassembler only handles 32-bit files and instructions are four-byte aligned, leaving the two low bits of the source
+ * free for the kind. The index keeps the packed references sorted by target and, separately, by source, so all lookups
+ * are binary searches over primitive arrays.
+ */
+public final class CrossReferenceIndex {
+
+    /** A B-type conditional branch. */
+    public static final int KIND_BRANCH = 0;
+    /** A JAL or AUIPC+JALR pair without a link register. */
+    public static final int KIND_JUMP = 1;
+    /** A JAL or AUIPC+JALR pair with a link register. */
+    public static final int KIND_CALL = 2;
+
+    private static final int CHUNK_WORDS = 1 << 16;
+    private static final long[] NONE = new long[0];
+
+    /** References sorted by target, packed as target << 32 | source | kind. */
+    private final long[] byTarget;
+    /** References sorted by source, packed as source << 32 | target, with the kind in the low bits of the source. */
+    private final long[] bySource;
+    /** Start and exclusive end of the known functions, used to answer caller and callee queries. */
+    private final long[] functionStart;
+    private final long[] functionEnd;
+
+    private CrossReferenceIndex(long[] byTarget, long[] functionStart, long[] functionEnd) {
+        this.byTarget = byTarget;
+        this.functionStart = functionStart;
+        this.functionEnd = functionEnd;
+        bySource = new long[byTarget.length];
+        for (int i = 0; i < byTarget.length; i++) {
+            bySource[i] = (byTarget[i] << 32) | (byTarget[i] >>> 32);
+        }
+        sortUnsigned(bySource);
+    }
+
+    /** The number of references in the index. */
+    public int size() {
+        return byTarget.length;
+    }
+
+    /**
+     * Returns the addresses of all instructions referring to the target, in ascending order.
+     */
+    public long[] referencesTo(long target) {
+        return referencesTo(target, -1);
+    }
+
+    /**
+     * Returns the addresses of the instructions referring to the target with one of the KIND_* constants, in ascending
+     * order. A kind of -1 matches every reference.
+     */
+    public long[] referencesTo(long target, int kind) {
+        int from = lowerBound(byTarget, (target & 0xFFFFFFFFL) << 32);
+        int to = lowerBound(byTarget, ((target & 0xFFFFFFFFL) + 1) << 32);
+        long[] result = new long[to - from];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (kind == -1 || (byTarget[i] & 3) == kind) result[count++] = byTarget[i] & 0xFFFFFFFCL;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns the start addresses of the functions containing a call to the address, in ascending order.
+     */
+    public long[] callersOf(long address) {
+        long[] sites = referencesTo(address, KIND_CALL);
+        long[] callers = new long[sites.length];
+        int count = 0;
+        for (long site : sites) {
+            int function = functionAt(site);
+            if (function != -1 && (count == 0 || callers[count - 1] != functionStart[function])) {
+                callers[count++] = functionStart[function];
+            }
+        }
+        return Arrays.copyOf(callers, count);
+    }
+
+    /**
+     * Returns the distinct addresses called from the function containing the address, in ascending order.
+     */
+    public long[] calleesOf(long address) {
+        int function = functionAt(address);
+        if (function == -1) return NONE;
+        int from = lowerBound(bySource, (functionStart[function] & 0xFFFFFFFFL) << 32);
+        int to = lowerBound(bySource, (functionEnd[function] & 0xFFFFFFFFL) << 32);
+        long[] callees = new long[to - from];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (((bySource[i] >>> 32) & 3) == KIND_CALL) callees[count++] = bySource[i] & 0xFFFFFFFFL;
+        }
+        Arrays.sort(callees, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || callees[distinct - 1] != callees[i]) callees[distinct++] = callees[i];
+        }
+        return Arrays.copyOf(callees, distinct);
+    }
+
+    private int functionAt(long address) {
+        address &= 0xFFFFFFFFL;
+        int i = Arrays.binarySearch(functionStart, address);
+        if (i < 0) i = -i - 2;
+        return (i >= 0 && address < functionEnd[i]) ? i : -1;
+    }
+
+    private static int lowerBound(long[] sorted, long key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(sorted[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    static CrossReferenceIndex build(RISCVDisassembler disassembler, ForkJoinPool pool) {
+        ElfFile file = disassembler.file;
+        disassembler.materializeSections();
+
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        TreeMap<Long, ElfSymbol> functions = new TreeMap<>();
+        for (ElfSection section : file.sectionsOfType(ElfSectionHeader.SHT_PROGBITS)) {
+            if ((section.header.flags & ElfSectionHeader.FLAG_EXEC_INSTR) == 0) continue;
+            List<ElfRelocationSection> relocations = disassembler.findRelocations(section);
+            functions.putAll(ControlFlowGraph.findFunctions(file, section));
+            int words = (int) (section.header.size >>> 2);
+            for (int start = 0; start < words; start += CHUNK_WORDS) {
+                int from = start;
+                int to = Math.min(words, start + CHUNK_WORDS);
+                tasks.add(() -> scan(disassembler, section, relocations, from, to));
+            }
+        }
+
+        long[] references;
+        try {
+            List<long[]> parts = new ArrayList<>();
+            int total = 0;
+            for (Future<long[]> future : pool.invokeAll(tasks)) {
+                long[] part = future.get();
+                parts.add(part);
+                total += part.length;
+            }
+            references = new long[total];
+            int position = 0;
+            for (long[] part : parts) {
+                System.arraycopy(part, 0, references, position, part.length);
+                position += part.length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building cross references", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to build cross references", e.getCause());
+        }
+        sortUnsigned(references);
+
+        long[] functionStart = new long[functions.size()];
+        long[] functionEnd = new long[functions.size()];
+        int i = 0;
+        for (Map.Entry<Long, ElfSymbol> function : functions.entrySet()) {
+            functionStart[i] = function.getKey() & 0xFFFFFFFFL;
+            functionEnd[i] = functionStart[i] + function.getValue().st_size;
+            i++;
+        }
+        return new CrossReferenceIndex(references, functionStart, functionEnd);
+    }
+
+    /**
+     * Collects the references of words [from, to) of the section. An AUIPC in the last word of the range is paired
+     * with the first word of the next one.
+     */
+    private static long[] scan(RISCVDisassembler disassembler, ElfSection section, List<ElfRelocationSection> relocations, int from, int to) {
+        IntBuffer code = section.contentsAsInts();
+        long base = section.header.address;
+        long[] references = new long[64];
+        int count = 0;
+        for (int w = from; w < to; w++) {
+            int instruction = code.get(w);
+            int opcode = instruction & ((1 << 7) - 1);
+            int rd = instruction >> 7 & ((1 << 5) - 1);
+            long curOffset = (long) w << 2;
+            long target;
+            int kind;
+            if (opcode == 0b1101111) { // JAL
+                target = disassembler.getJumpTarget(section, relocations, curOffset, RISCVDisassembler.getOffsetForJType(instruction));
+                kind = rd == 0 ? KIND_JUMP : KIND_CALL;
+            } else if (opcode == 0b1100011) { // B-type
+                target = disassembler.getJumpTarget(section, relocations, curOffset, RISCVDisassembler.getOffsetForBType(instruction));
+                kind = KIND_BRANCH;
+            } else if (opcode == 0b0010111 && w + 1 < code.limit()) { // AUIPC, possibly followed by JALR
+                int next = code.get(w + 1);
+                int nextRs1 = next >> 15 & ((1 << 5) - 1);
+                if ((next & ((1 << 7) - 1)) != 0b1100111 || (next >> 12 & ((1 << 3) - 1)) != 0 || nextRs1 != rd || rd == 0) continue;
+                int offset = (instruction & 0xFFFFF000) + (next >> 20);
+                target = disassembler.getJumpTarget(section, relocations, curOffset, offset);
+                kind = (next >> 7 & ((1 << 5) - 1)) == 0 ? KIND_JUMP : KIND_CALL;
+            } else {
+                continue;
+            }
+            if (count == references.length) references = Arrays.copyOf(references, count * 2);
+            references[count++] = ((target & 0xFFFFFFFFL) << 32) | ((base + curOffset) & 0xFFFFFFFCL) | kind;
+        }
+        return Arrays.copyOf(references, count);
+    }
+
+    /**
+     * Sorts packed references, which compare as unsigned longs since their high half is an unsigned 32-bit address.
+     */
+    private static void sortUnsigned(long[] values) {
+        // Flipping the sign bit maps unsigned order onto signed order.
+        for (int i = 0; i < values.length; i++) values[i] ^= Long.MIN_VALUE;
+        Arrays.parallelSort(values);
+        for (int i = 0; i < values.length; i++) values[i] ^= Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,122 @@
+package me.alzhanov.ELF;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The decode entries of a set of {@link IsaExtension}s merged into one flat lookup table.
+ * <p>
+ * The table has a slot for every combination of the major opcode (bits 6:2) and funct3, 256 in all. Each entry is
+ * copied into every slot it can match, and the entries of a slot are ordered from the most to the least specific mask,
+ * so that an entry of, say, Zbb shadows the more lenient base entry it overlaps with. Decoding a word is an index into
+ * the slots and a scan of the few entries there, however many extensions are enabled, and extensions that are not
+ * enabled are not in the table at all.
+ */
+public final class DecodeTable {
+    private static final int SLOTS = 1 << 8;
+    /** The opcode and funct3 bits selecting the slot. */
+    private static final int SLOT_MASK = 0x707C;
+    private static final Entry[] EMPTY = new Entry[0];
+    private static final Map<List<String>, DecodeTable> CACHE = new ConcurrentHashMap<>();
+
+    public static final class Entry {
+        public final String mnemonic;
+        public final int mask;
+        public final int match;
+        public final InstructionFormat format;
+        /** The name of the extension contributing the entry. */
+        public final String extension;
+        /** The position of the entry in the {@link #entries()} of its table. */
+        public final int index;
+
+        Entry(String mnemonic, int mask, int match, InstructionFormat format, String extension, int index) {
+            this.mnemonic = mnemonic;
+            this.mask = mask;
+            this.match = match;
+            this.format = format;
+            this.extension = extension;
+            this.index = index;
+        }
+
+        /** The major opcode, bits 6:0, of the words matched, which the standard extensions always fix. */
+        public int opcode() {
+            return match & 0x7F;
+        }
+    }
+
+    /**
+     * Collects the entries contributed by {@link IsaExtension#addEntries}.
+     */
+    public static final class Builder {
+        private final List<Entry> entries = new ArrayList<>();
+        private String extension;
+
+        /**
+         * Adds an instruction matching the words with {@code (word & mask) == match}.
+         */
+        public Builder add(String mnemonic, int mask, int match, InstructionFormat format) {
+            if ((match & ~mask) != 0)
+                throw new IllegalArgumentException(String.format("Match 0x%08X of %s has bits outside mask 0x%08X", match, mnemonic, mask));
+            entries.add(new Entry(mnemonic, mask, match, format, extension, entries.size()));
+            return this;
+        }
+    }
+
+    private final Entry[][] slots = new Entry[SLOTS][];
+    private final List<IsaExtension> extensions;
+    private final List<Entry> entries;
+
+    private DecodeTable(List<IsaExtension> extensions) {
+        this.extensions = Collections.unmodifiableList(extensions);
+        Builder builder = new Builder();
+        for (IsaExtension extension : extensions) {
+            builder.extension = extension.name();
+            extension.addEntries(builder);
+        }
+        this.entries = Collections.unmodifiableList(builder.entries);
+        List<Entry> entries = new ArrayList<>(builder.entries);
+        // Stable, so entries with equal masks keep the order of the extensions.
+        entries.sort(Comparator.comparingInt((Entry entry) -> Integer.bitCount(entry.mask)).reversed());
+        List<Entry> slot = new ArrayList<>();
+        for (int s = 0; s < SLOTS; s++) {
+            int slotBits = (s >>> 3) << 2 | (s & 7) << 12;
+            slot.clear();
+            for (Entry entry : entries) {
+                if (((entry.match ^ slotBits) & entry.mask & SLOT_MASK) == 0) slot.add(entry);
+            }
+            slots[s] = slot.isEmpty() ? EMPTY : slot.toArray(EMPTY);
+        }
+    }
+
+    /**
+     * Returns the table of the extensions, shared with every other caller asking for the same set.
+     */
+    public static DecodeTable of(Collection<? extends IsaExtension> extensions) {
+        List<IsaExtension> ordered = new ArrayList<>(new LinkedHashSet<>(extensions));
+        List<String> key = new ArrayList<>();
+        for (IsaExtension extension : ordered) key.add(extension.name());
+        return CACHE.computeIfAbsent(key, names -> new DecodeTable(ordered));
+    }
+
+    /**
+     * Returns the entry decoding the instruction, or null if no enabled extension has it.
+     */
+    public Entry find(int instruction) {
+        for (Entry entry : slots[(instruction >>> 2 & 0x1F) << 3 | (instruction >>> 12 & 7)]) {
+            if ((instruction & entry.mask) == entry.match) return entry;
+        }
+        return null;
+    }
+
+    public List<IsaExtension> extensions() {
+        return extensions;
+    }
+
+    /**
+     * Returns every entry of the table in the order the extensions added them, those of an extension being in the order
+     * of {@link #extensions()}.
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+}
@@ -0,0 +1,511 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfFile;
+import net.fornwall.jelf.ElfRelocationSection;
+import net.fornwall.jelf.ElfSection;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs instruction words, up to all 2^32 of them, through the decoder and checks for every word that
+ * <ul>
+ *     <li>{@link RISCVDisassembler#disassembleInstruction} does not throw and prints exactly one line,</li>
+ *     <li>the printed operands encode back into the bits of the word they were decoded from, and</li>
+ *     <li>the targets found by the label pass ({@link RISCVDisassembler#findUnmarkedLocations}) are exactly the target
+ *     printed for a jump or branch, and nothing for other instructions.</li>
+ * </ul>
+ * Each word is decoded as the only instruction of the .text section of a small synthetic file, one per thread, whose
+ * contents are overwritten in place. The range is split into chunks run in parallel on a pool, and the throughput in
+ * words per second is reported along with the failures.
+ * <p>
+ * The words are decoded with the {@link DecodeTable} of the given extensions, and the printed mnemonic and operands are
+ * checked against the entry the table finds for the word. Words decoded by the lenient {@code slli} and {@code srli}
+ * entries with a non-zero funct7 are counted as non-canonical rather than failed, since the decoder is lenient there
+ * by design.
+ */
+public final class DecoderSweep {
+    public static final long WORD_COUNT = 1L << 32;
+    /** The address of the synthetic .text section, far enough from 0 for every jump target to be positive. */
+    static final long TEXT_ADDRESS = 0x10000000L;
+
+    private static final int CHUNK_WORDS = 1 << 20;
+    private static final int MAX_REPORTED = 32;
+    private static final int TEXT_OFFSET = 52;
+    private static final String[] REGISTERS = new String[32];
+    private static final String[] FLOAT_REGISTERS = new String[32];
+    private static final List<String> ORDERINGS = Arrays.asList("", ".rl", ".aq", ".aqrl");
+    private static final List<String> ROUNDING_MODES = Arrays.asList("rne", "rtz", "rdn", "rup", "rmm", "5", "6");
+
+    static {
+        for (int reg = 0; reg < 32; reg++) {
+            REGISTERS[reg] = RISCVDisassembler.getRegisterString(reg);
+            FLOAT_REGISTERS[reg] = RISCVDisassembler.getFloatRegisterString(reg);
+        }
+    }
+
+    /** The counts of one chunk, or of the whole sweep once merged. */
+    private static final class Part {
+        long words;
+        long decoded;
+        long unknown;
+        long nonCanonical;
+        long failed;
+        final List<String> failures = new ArrayList<>();
+
+        void fail(int word, String reason, String text) {
+            failed++;
+            if (failures.size() < MAX_REPORTED) {
+                failures.add(String.format("%08X: %s: %s", word, reason, text.trim().replace(System.lineSeparator(), " | ")));
+            }
+        }
+
+        void add(Part part) {
+            words += part.words;
+            decoded += part.decoded;
+            unknown += part.unknown;
+            nonCanonical += part.nonCanonical;
+            failed += part.failed;
+            for (String failure : part.failures) {
+                if (failures.size() < MAX_REPORTED) failures.add(failure);
+            }
+        }
+    }
+
+    private final long firstWord;
+    private final long lastWord;
+    private final int threads;
+    private final long nanos;
+    private final Part total;
+
+    private DecoderSweep(long firstWord, long lastWord, int threads, long nanos, Part total) {
+        this.firstWord = firstWord;
+        this.lastWord = lastWord;
+        this.threads = threads;
+        this.nanos = nanos;
+        this.total = total;
+    }
+
+    /**
+     * Sweeps the words in [firstWord, lastWord] on the pool, decoding the extensions, or {@link IsaRegistry#DEFAULT} if
+     * null. If progress is not null, the share of words done so far is printed to it as whole percents.
+     */
+    public static DecoderSweep run(long firstWord, long lastWord, List<IsaExtension> extensions, ForkJoinPool pool, PrintWriter progress) {
+        if (firstWord < 0 || lastWord >= WORD_COUNT || firstWord > lastWord)
+            throw new IllegalArgumentException(String.format("Bad word range 0x%X:0x%X", firstWord, lastWord));
+        long start = System.nanoTime();
+        List<Future<Part>> futures = new ArrayList<>();
+        for (long from = firstWord; from <= lastWord; from += CHUNK_WORDS) {
+            long chunkFrom = from;
+            long chunkTo = Math.min(lastWord + 1, from + CHUNK_WORDS);
+            futures.add(pool.submit(() -> sweep(chunkFrom, chunkTo, extensions)));
+        }
+        Part total = new Part();
+        long count = lastWord - firstWord + 1;
+        long reported = 0;
+        try {
+            for (Future<Part> future : futures) {
+                total.add(future.get());
+                long percent = total.words * 100 / count;
+                if (progress != null && percent != reported) {
+                    reported = percent;
+                    progress.printf("Swept %d%% (%d words)%n", percent, total.words);
+                    progress.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sweeping", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to sweep", e.getCause());
+        } finally {
+            for (Future<Part> future : futures) future.cancel(true);
+        }
+        return new DecoderSweep(firstWord, lastWord, pool.getParallelism(), System.nanoTime() - start, total);
+    }
+
+    public static DecoderSweep run(long firstWord, long lastWord) {
+        return run(firstWord, lastWord, null, ForkJoinPool.commonPool(), null);
+    }
+
+    private static Part sweep(long from, long to, List<IsaExtension> extensions) throws IOException {
+        ByteBuffer image = syntheticImage();
+        RISCVDisassembler disassembler = new RISCVDisassembler(ElfFile.from(image), extensions);
+        DecodeTable table = disassembler.decodeTable;
+        ElfSection text = disassembler.getTextSection();
+        List<ElfRelocationSection> relocations = Collections.emptyList();
+        StringWriter buffer = new StringWriter();
+        PrintWriter writer = new PrintWriter(buffer);
+        Part part = new Part();
+        for (long w = from; w < to; w++) {
+            int word = (int) w;
+            image.putInt(TEXT_OFFSET, word);
+            buffer.getBuffer().setLength(0);
+            Set<Long> targets;
+            try {
+                targets = disassembler.findUnmarkedLocations(text);
+                disassembler.disassembleInstruction(writer, text, word, 0, targets::contains, relocations);
+                writer.flush();
+            } catch (RuntimeException e) {
+                writer.flush();
+                part.fail(word, "threw " + e, buffer.toString());
+                part.words++;
+                continue;
+            }
+            check(part, word, table.find(word), buffer.toString(), targets);
+            part.words++;
+        }
+        return part;
+    }
+
+    /**
+     * Checks the text printed for the word, which starts at {@link #TEXT_ADDRESS}, against the word, the entry decoding
+     * it, if any, and the targets the label pass found for it.
+     */
+    private static void check(Part part, int word, DecodeTable.Entry entry, String text, Set<Long> targets) {
+        String separator = System.lineSeparator();
+        if (!text.endsWith(separator) || text.indexOf(separator) != text.length() - separator.length()) {
+            part.fail(word, "not exactly one line", text);
+            return;
+        }
+        String prefix = String.format("%08X: ", TEXT_ADDRESS);
+        String label = String.format("<LOC_0x%08X>", TEXT_ADDRESS);
+        String line = text.substring(0, text.length() - separator.length());
+        if (!line.startsWith(prefix)) {
+            part.fail(word, "bad address", text);
+            return;
+        }
+        String body = line.substring(prefix.length());
+        boolean labelled = body.startsWith(label);
+        if (labelled) body = body.substring(label.length());
+        if (!body.startsWith("\t")) {
+            part.fail(word, "bad label", text);
+            return;
+        }
+        if (labelled != targets.contains(TEXT_ADDRESS)) {
+            part.fail(word, "label does not match the label pass", text);
+            return;
+        }
+        body = body.substring(1).trim();
+
+        String comment = null;
+        int tab = body.indexOf('\t');
+        if (tab != -1) {
+            comment = body.substring(tab + 1).trim();
+            body = body.substring(0, tab);
+        }
+        int space = body.indexOf(' ');
+        String mnemonic = space == -1 ? body : body.substring(0, space);
+        String[] operands = space == -1 ? new String[0] : body.substring(space + 1).split(", ");
+        if (mnemonic.equals("??") || mnemonic.equals("????")) {
+            if (entry != null) {
+                part.fail(word, "printed as unknown but decodes as " + entry.mnemonic, text);
+                return;
+            }
+            part.unknown++;
+            if (!targets.isEmpty()) part.fail(word, "label pass found a target for an unknown instruction", text);
+            return;
+        }
+        if (entry == null) {
+            part.fail(word, "printed a mnemonic for a word no entry decodes", text);
+            return;
+        }
+        // Only the atomics print a suffix, their ordering.
+        String suffix = mnemonic.startsWith(entry.mnemonic) ? mnemonic.substring(entry.mnemonic.length()) : null;
+        if (suffix == null || (!suffix.isEmpty() && entry.opcode() != 0b0101111)) {
+            part.fail(word, "printed mnemonic is not " + entry.mnemonic, text);
+            return;
+        }
+        boolean shift = (word & 0x307F) == 0x1013;
+        if (shift && (entry.mask >>> 25) != 0x7F && word >>> 25 != 0) part.nonCanonical++;
+
+        String failure;
+        try {
+            failure = checkOperands(word, entry, suffix, operands, comment, targets);
+        } catch (RuntimeException e) {
+            failure = "unparsable operands (" + e + ")";
+        }
+        if (failure != null) {
+            part.fail(word, failure, text);
+        } else {
+            part.decoded++;
+        }
+    }
+
+    /**
+     * Encodes the printed operands back into the fields of the format of the opcode and compares them with the word,
+     * returning what is wrong or null.
+     */
+    private static String checkOperands(int word, DecodeTable.Entry entry, String suffix, String[] operands, String comment,
+                                        Set<Long> targets) {
+        int opcode = entry.opcode();
+        String mnemonic = entry.mnemonic;
+        int encoded;
+        int mask;
+        long offset = 0;
+        boolean jump = false;
+        switch (opcode) {
+            case 0b0110111: // LUI
+            case 0b0010111: // AUIPC
+                expect(operands, 2);
+                encoded = register(operands[0]) << 7 | (int) Long.parseLong(operands[1]);
+                mask = 0xFFFFFF80;
+                break;
+            case 0b1101111: // JAL
+                expect(operands, 2);
+                offset = Long.parseLong(operands[1]);
+                if (offset < -(1 << 20) || offset >= 1 << 20 || (offset & 1) != 0) return "jump offset out of range";
+                encoded = register(operands[0]) << 7 | encodeJ((int) offset);
+                mask = 0xFFFFFF80;
+                jump = true;
+                break;
+            case 0b1100011: // B-type
+                expect(operands, 3);
+                offset = Long.parseLong(operands[2]);
+                if (offset < -(1 << 12) || offset >= 1 << 12 || (offset & 1) != 0) return "branch offset out of range";
+                encoded = register(operands[0]) << 15 | register(operands[1]) << 20 | encodeB((int) offset);
+                mask = ~0x707F;
+                jump = true;
+                break;
+            case 0b1100111: // JALR
+                expect(operands, 3);
+                encoded = register(operands[0]) << 7 | register(operands[1]) << 15 | immediateI(operands[2], -2048, 2047);
+                mask = ~0x707F;
+                break;
+            case 0b0000011: case 0b0000111: { // loads, integer and floating-point
+                expect(operands, 2);
+                String[] address = splitAddress(operands[1]);
+                int rd = opcode == 0b0000111 ? floatRegister(operands[0]) : register(operands[0]);
+                encoded = rd << 7 | register(address[1]) << 15 | immediateI(address[0], -2048, 2047);
+                mask = ~0x707F;
+                break;
+            }
+            case 0b0100011: case 0b0100111: { // stores, integer and floating-point
+                expect(operands, 2);
+                String[] address = splitAddress(operands[1]);
+                int imm = immediateI(address[0], -2048, 2047) >>> 20;
+                int rs2 = opcode == 0b0100111 ? floatRegister(operands[0]) : register(operands[0]);
+                encoded = rs2 << 20 | register(address[1]) << 15 | (imm >>> 5) << 25 | (imm & 0x1F) << 7;
+                mask = ~0x707F;
+                break;
+            }
+            case 0b0010011: // OP-IMM
+                if ((entry.mask & 0xFFF00000) == 0xFFF00000) { // unary, such as clz
+                    expect(operands, 2);
+                    encoded = register(operands[0]) << 7 | register(operands[1]) << 15;
+                    mask = ~entry.mask;
+                    break;
+                }
+                expect(operands, 3);
+                encoded = register(operands[0]) << 7 | register(operands[1]) << 15;
+                if ((entry.mask >>> 25) == 0x7F) { // srai and rori, a shift amount under a fixed funct7
+                    encoded |= immediateI(operands[2], 0, 31);
+                    mask = 0x01FF8F80;
+                } else {
+                    encoded |= immediateI(operands[2], -2048, 4095);
+                    mask = ~0x707F;
+                }
+                break;
+            case 0b0110011: // R-type, where a fixed rs2 leaves a unary one such as zext.h
+                if ((entry.mask & 0x01F00000) != 0) {
+                    expect(operands, 2);
+                    encoded = register(operands[0]) << 7 | register(operands[1]) << 15;
+                } else {
+                    expect(operands, 3);
+                    encoded = register(operands[0]) << 7 | register(operands[1]) << 15 | register(operands[2]) << 20;
+                }
+                mask = ~entry.mask;
+                break;
+            case 0b0101111: { // AMO, the ordering bits 26:25 printed as the suffix, where lr.w has a fixed rs2
+                int ordering = ORDERINGS.indexOf(suffix);
+                if (ordering == -1) return "bad ordering suffix";
+                boolean binary = (entry.mask & 0x01F00000) == 0;
+                expect(operands, binary ? 3 : 2);
+                String[] address = splitAddress(operands[operands.length - 1]);
+                if (!address[0].isEmpty()) return "offset in an atomic address";
+                encoded = register(operands[0]) << 7 | register(address[1]) << 15 | ordering << 25;
+                if (binary) encoded |= register(operands[1]) << 20;
+                mask = ~entry.mask;
+                break;
+            }
+            case 0b1000011: case 0b1000111: case 0b1001011: case 0b1001111: // fused multiply-add
+                expectWithRoundingMode(operands, 4);
+                encoded = floatRegister(operands[0]) << 7 | floatRegister(operands[1]) << 15 | floatRegister(operands[2]) << 20
+                        | floatRegister(operands[3]) << 27 | roundingMode(operands, 4) << 12;
+                mask = ~entry.mask;
+                break;
+            case 0b1010011: { // OP-FP, where a fixed rs2 leaves a unary one and a fixed funct3 one without rounding mode
+                boolean binary = (entry.mask & 0x01F00000) == 0;
+                boolean rounding = (entry.mask & 0x7000) == 0;
+                int count = binary ? 3 : 2;
+                if (rounding) {
+                    expectWithRoundingMode(operands, count);
+                } else {
+                    expect(operands, count);
+                }
+                // The comparisons, fclass and the moves and conversions between the register files take integer ones.
+                boolean integerRd = mnemonic.startsWith("fcvt.w") || mnemonic.startsWith("fmv.x") || mnemonic.startsWith("feq")
+                        || mnemonic.startsWith("flt") || mnemonic.startsWith("fle") || mnemonic.startsWith("fclass");
+                boolean integerRs1 = mnemonic.startsWith("fcvt.s.w") || mnemonic.startsWith("fcvt.d.w") || mnemonic.startsWith("fmv.w");
+                encoded = (integerRd ? register(operands[0]) : floatRegister(operands[0])) << 7
+                        | (integerRs1 ? register(operands[1]) : floatRegister(operands[1])) << 15;
+                if (binary) encoded |= floatRegister(operands[2]) << 20;
+                if (rounding) encoded |= roundingMode(operands, count) << 12;
+                mask = ~entry.mask;
+                break;
+            }
+            case 0b0001111: // FENCE, FENCE.I
+                if (mnemonic.equals("fence.i")) {
+                    expect(operands, 0);
+                    encoded = 0;
+                    mask = 0;
+                } else {
+                    expect(operands, 2);
+                    encoded = (Integer.parseInt(operands[0]) + Integer.parseInt(operands[1])) << 20;
+                    mask = 0xFFF00000;
+                }
+                break;
+            case 0b1110011: // SYSTEM
+                if (mnemonic.equals("ecall") || mnemonic.equals("ebreak")) {
+                    expect(operands, 0);
+                    encoded = 0;
+                    mask = 0;
+                } else {
+                    expect(operands, 3);
+                    encoded = register(operands[0]) << 7 | immediateI(operands[1], 0, 4095) | register(operands[2]) << 15;
+                    mask = ~0x707F;
+                }
+                break;
+            default:
+                return "no operand format";
+        }
+        if ((word & mask) != encoded) return String.format("operands encode to %08X under mask %08X", encoded, mask);
+
+        if (!jump) {
+            if (comment != null) return "unexpected comment";
+            if (!targets.isEmpty()) return "label pass found a target for a non-jump";
+            return null;
+        }
+        long target = TEXT_ADDRESS + offset;
+        if (comment == null || !comment.startsWith("#0x")) return "no printed target";
+        int end = comment.indexOf(' ');
+        long printed = Long.parseLong(comment.substring(3, end == -1 ? comment.length() : end), 16);
+        if (printed != target) return "printed target is not address + offset";
+        if (targets.size() != 1 || !targets.contains(target)) return "label pass found " + targets + " instead";
+        return null;
+    }
+
+    private static void expect(String[] operands, int count) {
+        if (operands.length != count) throw new IllegalArgumentException(operands.length + " operands instead of " + count);
+    }
+
+    /** Checks for the operands followed by an optional rounding mode. */
+    private static void expectWithRoundingMode(String[] operands, int count) {
+        if (operands.length != count && operands.length != count + 1)
+            throw new IllegalArgumentException(operands.length + " operands instead of " + count + " and a rounding mode");
+    }
+
+    /** The rounding mode at the index of the operands, the dynamic one, 7, if it is not printed. */
+    private static int roundingMode(String[] operands, int index) {
+        if (operands.length <= index) return 7;
+        int mode = ROUNDING_MODES.indexOf(operands[index]);
+        if (mode == -1) throw new IllegalArgumentException("no rounding mode " + operands[index]);
+        return mode;
+    }
+
+    private static int register(String name) {
+        for (int reg = 0; reg < 32; reg++) {
+            if (REGISTERS[reg].equals(name)) return reg;
+        }
+        throw new IllegalArgumentException("no register " + name);
+    }
+
+    private static int floatRegister(String name) {
+        for (int reg = 0; reg < 32; reg++) {
+            if (FLOAT_REGISTERS[reg].equals(name)) return reg;
+        }
+        throw new IllegalArgumentException("no floating-point register " + name);
+    }
+
+    /** Parses {@code imm(reg)} into the two strings. */
+    private static String[] splitAddress(String operand) {
+        int open = operand.indexOf('(');
+        if (open == -1 || !operand.endsWith(")")) throw new IllegalArgumentException("no address: " + operand);
+        return new String[]{operand.substring(0, open), operand.substring(open + 1, operand.length() - 1)};
+    }
+
+    /** Parses a 12-bit immediate, checking its range, and places it in bits 31:20. */
+    private static int immediateI(String value, int min, int max) {
+        int imm = Integer.parseInt(value);
+        if (imm < min || imm > max) throw new IllegalArgumentException("immediate out of range: " + value);
+        return (imm & 0xFFF) << 20;
+    }
+
+    // The encodings below follow the RISC-V unprivileged specification, independently of the decoder.
+
+    private static int encodeJ(int offset) {
+        return (offset >>> 20 & 1) << 31 | (offset >>> 1 & 0x3FF) << 21 | (offset >>> 11 & 1) << 20 | (offset >>> 12 & 0xFF) << 12;
+    }
+
+    private static int encodeB(int offset) {
+        return (offset >>> 12 & 1) << 31 | (offset >>> 5 & 0x3F) << 25 | (offset >>> 1 & 0xF) << 8 | (offset >>> 11 & 1) << 7;
+    }
+
+    /**
+     * A little-endian RV32 executable holding only a four-byte .text section at {@link #TEXT_OFFSET} and the section
+     * name table.
+     */
+    private static ByteBuffer syntheticImage() {
+        byte[] names = "\0.text\0.shstrtab\0".getBytes(StandardCharsets.US_ASCII);
+        int namesOffset = TEXT_OFFSET + 4;
+        int sectionHeaders = (namesOffset + names.length + 3) & ~3;
+        ByteBuffer image = ByteBuffer.allocate(sectionHeaders + 3 * 40).order(ByteOrder.LITTLE_ENDIAN);
+        image.put(new byte[]{0x7F, 'E', 'L', 'F', ElfFile.CLASS_32, ElfFile.DATA_LSB, 1});
+        image.position(16);
+        image.putShort((short) ElfFile.ET_EXEC).putShort((short) 0xF3).putInt(1);
+        image.putInt((int) TEXT_ADDRESS).putInt(0).putInt(sectionHeaders).putInt(0);
+        image.putShort((short) TEXT_OFFSET).putShort((short) 32).putShort((short) 0);
+        image.putShort((short) 40).putShort((short) 3).putShort((short) 2);
+        image.position(namesOffset);
+        image.put(names);
+        // Section 0 stays all zeros.
+        image.position(sectionHeaders + 40);
+        image.putInt(1).putInt(1).putInt(0x6).putInt((int) TEXT_ADDRESS).putInt(TEXT_OFFSET).putInt(4).putInt(0).putInt(0).putInt(4).putInt(0);
+        image.putInt(7).putInt(3).putInt(0).putInt(0).putInt(namesOffset).putInt(names.length).putInt(0).putInt(0).putInt(1).putInt(0);
+        image.clear();
+        return image;
+    }
+
+    public long wordCount() {
+        return total.words;
+    }
+
+    public long failureCount() {
+        return total.failed;
+    }
+
+    public double wordsPerSecond() {
+        return total.words * 1e9 / Math.max(1, nanos);
+    }
+
+    public void write(PrintWriter out) {
+        out.printf("Swept 0x%08X..0x%08X: %d words in %.1f s on %d threads, %.0f words/s%n",
+                firstWord, lastWord, total.words, nanos / 1e9, threads, wordsPerSecond());
+        out.printf("%d decoded, %d non-canonical, %d unknown, %d failed%n",
+                total.decoded, total.nonCanonical, total.unknown, total.failed);
+        for (String failure : total.failures) out.println(failure);
+        if (total.failed > total.failures.size()) out.printf("... and %d more failures%n", total.failed - total.failures.size());
+    }
+}
@@ -0,0 +1,112 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfRelocationSection;
+import net.fornwall.jelf.ElfSection;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Random access to the lines of the disassembly of a code section, as printed by
+ * {@link RISCVDisassembler#doDisassemble}, without rendering the lines before them.
+ * <p>
+ * Creating a pager makes one pass over the section which renders nothing: it collects the LOC_ labels of the whole
+ * section and records a checkpoint every few instructions, holding the offset of the instruction and the number of its
+ * first line. A page is rendered by starting from the closest checkpoint before it, so the cost of a page is bounded by
+ * its size plus the checkpoint interval.
+ */
+public final class DisassemblyPager {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+    private final RISCVDisassembler disassembler;
+    private final ElfSection section;
+    private final IntBuffer code;
+    private final List<ElfRelocationSection> relocations;
+    /** Addresses with a LOC_ label, sorted. */
+    private final long[] labels;
+    /** Section offset of the instruction at each checkpoint. */
+    private final long[] checkpointOffset;
+    /** Line number of the first line of the instruction at each checkpoint, ascending. */
+    private final long[] checkpointLine;
+    private final long lineCount;
+
+    DisassemblyPager(RISCVDisassembler disassembler, ElfSection section, int checkpointInterval) {
+        if (checkpointInterval <= 0)
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+        this.disassembler = disassembler;
+        this.section = section;
+        this.code = section.contentsAsInts();
+        this.relocations = disassembler.findRelocations(section);
+
+        Set<Long> unmarked = disassembler.findUnmarkedLocations(section);
+        labels = new long[unmarked.size()];
+        int i = 0;
+        for (long label : unmarked) labels[i++] = label;
+        Arrays.sort(labels);
+
+        long size = section.header.size;
+        int instructions = (int) ((size + 3) >>> 2);
+        int checkpoints = (instructions + checkpointInterval - 1) / checkpointInterval;
+        checkpointOffset = new long[checkpoints];
+        checkpointLine = new long[checkpoints];
+        long line = 0;
+        for (int instruction = 0; instruction < instructions; instruction++) {
+            long curOffset = (long) instruction << 2;
+            if (instruction % checkpointInterval == 0) {
+                checkpointOffset[instruction / checkpointInterval] = curOffset;
+                checkpointLine[instruction / checkpointInterval] = line;
+            }
+            line += disassembler.getLineCount(section, relocations, curOffset);
+        }
+        lineCount = line;
+    }
+
+    /** The total number of lines of the disassembly. */
+    public long lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Prints at most count lines of the disassembly, starting with the line numbered firstLine (counting from 0).
+     */
+    public void render(PrintWriter out, long firstLine, int count) {
+        if (firstLine < 0 || count <= 0 || firstLine >= lineCount) return;
+        int checkpoint = Arrays.binarySearch(checkpointLine, firstLine);
+        if (checkpoint < 0) checkpoint = -checkpoint - 2;
+        long curOffset = checkpointOffset[checkpoint];
+        long line = checkpointLine[checkpoint];
+
+        // Skip whole instructions before the first line without rendering them.
+        int lines;
+        while (line + (lines = disassembler.getLineCount(section, relocations, curOffset)) <= firstLine) {
+            line += lines;
+            curOffset += 4;
+        }
+
+        StringWriter buffer = new StringWriter();
+        PrintWriter bufferWriter = new PrintWriter(buffer);
+        int remaining = count;
+        while (remaining > 0 && curOffset < section.header.size) {
+            buffer.getBuffer().setLength(0);
+            disassembler.disassembleWord(bufferWriter, section, code, curOffset, this::isLabel, relocations);
+            bufferWriter.flush();
+            // An instruction printing several lines may straddle either end of the page.
+            String[] rendered = buffer.toString().split(Pattern.quote(System.lineSeparator()), -1);
+            for (int i = 0; i < rendered.length - 1 && remaining > 0; i++, line++) {
+                if (line < firstLine) continue;
+                out.println(rendered[i]);
+                remaining--;
+            }
+            curOffset += 4;
+        }
+    }
+
+    private boolean isLabel(long address) {
+        return Arrays.binarySearch(labels, address) >= 0;
+    }
+}
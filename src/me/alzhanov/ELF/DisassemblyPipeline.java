@@ -0,0 +1,158 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfRelocationSection;
+import net.fornwall.jelf.ElfSection;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Disassembles a code section in pipelined stages, each on threads of its own:
+ * <ul>
+ *     <li>a reader copying fixed-size batches of instruction words out of the file,</li>
+ *     <li>formatters turning batches into text,</li>
+ *     <li>the calling thread, writing the text of the batches in order.</li>
+ * </ul>
+ * Batches are handed round-robin to the formatters, each of which has one {@link SpscQueue} in and one out, so every
+ * queue has a single producer and a single consumer and the writer restores the order by reading the output queues in
+ * the same rotation. The queues are bounded, so a slow writer holds the other stages back and memory use does not
+ * depend on the size of the section.
+ */
+final class DisassemblyPipeline {
+    static final int BATCH_SIZE = 4096;
+    static final int QUEUE_CAPACITY = 4;
+
+    private static final class Batch {
+        final long fromOffset;
+        final int[] words;
+        final int count;
+        String text;
+        Throwable error;
+
+        Batch(long fromOffset, int[] words, int count) {
+            this.fromOffset = fromOffset;
+            this.words = words;
+            this.count = count;
+        }
+    }
+
+    /** Marks the end of the input, passed through every queue. */
+    private static final Batch END = new Batch(0, new int[0], 0);
+
+    private final RISCVDisassembler disassembler;
+    private final ElfSection section;
+    private final Set<Long> unmarked;
+    private final List<ElfRelocationSection> relocations;
+
+    DisassemblyPipeline(RISCVDisassembler disassembler, ElfSection section) {
+        this.disassembler = disassembler;
+        this.section = section;
+        disassembler.materializeSections();
+        disassembler.file.getDynamicSymbolTableSection();
+        disassembler.file.getSymbolTableSection();
+        this.unmarked = disassembler.findUnmarkedLocations(section);
+        this.relocations = disassembler.findRelocations(section);
+    }
+
+    void run(Writer out, int formatters) throws IOException {
+        if (formatters <= 0) throw new IllegalArgumentException("Need at least one formatter: " + formatters);
+        @SuppressWarnings("unchecked")
+        SpscQueue<Batch>[] inputs = (SpscQueue<Batch>[]) new SpscQueue<?>[formatters];
+        @SuppressWarnings("unchecked")
+        SpscQueue<Batch>[] outputs = (SpscQueue<Batch>[]) new SpscQueue<?>[formatters];
+        for (int i = 0; i < formatters; i++) {
+            inputs[i] = new SpscQueue<>(QUEUE_CAPACITY);
+            outputs[i] = new SpscQueue<>(QUEUE_CAPACITY);
+        }
+        Thread[] threads = new Thread[formatters + 1];
+        threads[0] = new Thread(() -> read(inputs), "disassembly-reader");
+        for (int i = 0; i < formatters; i++) {
+            SpscQueue<Batch> input = inputs[i];
+            SpscQueue<Batch> output = outputs[i];
+            threads[i + 1] = new Thread(() -> format(input, output), "disassembly-formatter-" + i);
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try {
+            for (long index = 0; ; index++) {
+                Batch batch = outputs[(int) (index % formatters)].take();
+                if (batch == END) break;
+                if (batch.error != null) throw new IllegalStateException("Failed to disassemble", batch.error);
+                out.write(batch.text);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while disassembling", e);
+        } finally {
+            for (Thread thread : threads) thread.interrupt();
+        }
+    }
+
+    private void read(SpscQueue<Batch>[] inputs) {
+        try {
+            IntBuffer code = section.contentsAsInts();
+            long size = section.header.size;
+            long instructions = (size + 3) >>> 2;
+            long index = 0;
+            for (long word = 0; word < instructions; word += BATCH_SIZE, index++) {
+                int count = (int) Math.min(BATCH_SIZE, instructions - word);
+                int[] words = new int[count];
+                // A trailing partial word is left 0 and printed as unknown.
+                code.get((int) word, words, 0, (int) Math.min(count, code.limit() - word));
+                inputs[(int) (index % inputs.length)].put(new Batch(word << 2, words, count));
+            }
+            for (SpscQueue<Batch> input : inputs) input.put(END);
+        } catch (InterruptedException e) {
+            // The writer gave up.
+        } catch (RuntimeException | Error e) {
+            Batch failed = new Batch(0, new int[0], 0);
+            failed.error = e;
+            try {
+                // The writer stops at the first failed batch, whichever queue it is in.
+                for (SpscQueue<Batch> input : inputs) input.put(failed);
+            } catch (InterruptedException ignored) {
+                // The writer gave up.
+            }
+        }
+    }
+
+    private void format(SpscQueue<Batch> input, SpscQueue<Batch> output) {
+        StringWriter buffer = new StringWriter(BATCH_SIZE * 48);
+        PrintWriter writer = new PrintWriter(buffer);
+        try {
+            while (true) {
+                Batch batch = input.take();
+                if (batch == END || batch.error != null) {
+                    output.put(batch);
+                    return;
+                }
+                try {
+                    buffer.getBuffer().setLength(0);
+                    for (int i = 0; i < batch.count; i++) {
+                        long curOffset = batch.fromOffset + ((long) i << 2);
+                        if (curOffset + 4 <= section.header.size) {
+                            disassembler.disassembleInstruction(writer, section, batch.words[i], curOffset, unmarked::contains, relocations);
+                        } else {
+                            disassembler.disassembleTail(writer, section, curOffset, unmarked::contains, relocations);
+                        }
+                    }
+                    writer.flush();
+                    batch.text = buffer.toString();
+                } catch (RuntimeException | Error e) {
+                    batch.error = e;
+                }
+                output.put(batch);
+            }
+        } catch (InterruptedException e) {
+            // The writer gave up.
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package me.alzhanov.ELF;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.fornwall.jelf.ElfException;
+import net.fornwall.jelf.ElfFile;
+import net.fornwall.jelf.ElfSymbol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running disassembly service on the loopback interface, so that callers making many small requests do not pay
+ * for JVM startup, a cold JIT and re-parsing the ELF file every time.
+ * <p>
+ * Requests are plain HTTP GETs with the file given as the {@code path} query parameter:
+ * <ul>
+ *     <li>{@code /disassemble?path=...} - the output of {@link RISCVDisassembler#doDisassemble}</li>
+ *     <li>{@code /symtab?path=...} - the output of {@link RISCVDisassembler#dumpSymTable}, optionally filtered with
+ *     {@code type}, {@code bind} and {@code shndx} and ordered with {@code sort}, see {@link SymbolTableDump}</li>
+ *     <li>{@code /symbol?path=...&name=...} or {@code /symbol?path=...&address=...} - a single symbol</li>
+ *     <li>{@code /range?path=...&from=...&to=...} or {@code /range?path=...&symbol=...} - the disassembly of an
+ *     address range or of a single function, see {@link RISCVDisassembler#disassembleRange} and
+ *     {@link RISCVDisassembler#disassembleSymbol}</li>
+ *     <li>{@code /page?path=...&first=...&count=...} - count lines of the disassembly starting at line first, see
+ *     {@link DisassemblyPager}</li>
+ * </ul>
+ * Only requests whose {@code Host} header names the loopback interface and the port of the server are served, so
+ * that a web page cannot reach the server through DNS rebinding. If the server is given a root directory, only files
+ * under it are opened.
+ * <p>
+ * Opened files are kept in a bounded least-recently-used cache keyed by path, modification time and size, so a file
+ * changed on disk is parsed again. Requests are served concurrently; requests for the same file take turns on it, since
+ * an {@link ElfFile} is not safe for concurrent use.
+ */
+public class DisassemblyServer {
+    public static final int DEFAULT_PORT = 7878;
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    private static final class CachedFile {
+        final ElfFile file;
+        final RISCVDisassembler disassembler;
+        /** Built on the first page request. */
+        DisassemblyPager pager;
+
+        CachedFile(ElfFile file) {
+            this.file = file;
+            this.disassembler = new RISCVDisassembler(file);
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, CachedFile> cache;
+    /** The directory the files must be under, or null to open files anywhere. */
+    private final Path root;
+
+    public DisassemblyServer(int port, int cacheSize) throws IOException {
+        this(port, cacheSize, null);
+    }
+
+    public DisassemblyServer(int port, int cacheSize, Path root) throws IOException {
+        this.root = root == null ? null : root.toRealPath();
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedFile> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        server.createContext("/disassemble", exchange -> handle(exchange, (cached, params, out) -> cached.disassembler.doDisassemble(out)));
+        server.createContext("/symtab", exchange -> handle(exchange, this::symtab));
+        server.createContext("/symbol", exchange -> handle(exchange, this::symbol));
+        server.createContext("/range", exchange -> handle(exchange, this::range));
+        server.createContext("/page", exchange -> handle(exchange, this::page));
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private interface Query {
+        void run(CachedFile cached, Map<String, String> params, PrintWriter out) throws IOException;
+    }
+
+    private void symbol(CachedFile cached, Map<String, String> params, PrintWriter out) throws IOException {
+        ElfSymbol symbol;
+        if (params.containsKey("name")) {
+            symbol = cached.file.getELFSymbol(params.get("name"));
+        } else if (params.containsKey("address")) {
+            symbol = cached.file.getELFSymbol(Long.decode(params.get("address")));
+        } else {
+            throw new IllegalArgumentException("Expected name or address parameter");
+        }
+        if (symbol == null) {
+            out.println("not found");
+        } else {
+            out.printf("0x%08X %d %s %s %s%n", symbol.st_value, symbol.st_size,
+                    RISCVDisassembler.symbolTypeToString(symbol.getType()),
+                    RISCVDisassembler.bindingToString(symbol.getBinding()),
+                    symbol.st_name == 0 ? "" : symbol.getName());
+        }
+    }
+
+    private void symtab(CachedFile cached, Map<String, String> params, PrintWriter out) {
+        new SymbolTableDump(cached.file, cached.file.getSymbolTableSection()).write(out,
+                params.containsKey("type") ? SymbolTableDump.parseType(params.get("type")) : SymbolTableDump.ANY,
+                params.containsKey("bind") ? SymbolTableDump.parseBinding(params.get("bind")) : SymbolTableDump.ANY,
+                params.containsKey("shndx") ? Integer.decode(params.get("shndx")) : SymbolTableDump.ANY,
+                params.containsKey("sort") ? SymbolTableDump.parseSortOrder(params.get("sort")) : SymbolTableDump.SORT_NONE);
+    }
+
+    private void range(CachedFile cached, Map<String, String> params, PrintWriter out) throws IOException {
+        if (params.containsKey("symbol")) {
+            cached.disassembler.disassembleSymbol(out, params.get("symbol"));
+        } else if (params.containsKey("from") && params.containsKey("to")) {
+            cached.disassembler.disassembleRange(out, Long.decode(params.get("from")), Long.decode(params.get("to")));
+        } else {
+            throw new IllegalArgumentException("Expected symbol or from and to parameters");
+        }
+    }
+
+    private void page(CachedFile cached, Map<String, String> params, PrintWriter out) {
+        if (!params.containsKey("first") || !params.containsKey("count"))
+            throw new IllegalArgumentException("Expected first and count parameters");
+        if (cached.pager == null) cached.pager = cached.disassembler.pager();
+        cached.pager.render(out, Long.parseLong(params.get("first")), Integer.parseInt(params.get("count")));
+    }
+
+    /**
+     * Whether the Host header names the loopback interface, as localhost, 127.0.0.1 or [::1], and the port of the
+     * server. A host name resolved to the loopback address by a rebinding DNS server is rejected.
+     */
+    private boolean isLocalHost(String host) {
+        if (host == null) return false;
+        int colon = host.lastIndexOf(':');
+        if (colon == -1 || host.endsWith("]")) return false;
+        String name = host.substring(0, colon);
+        if (!name.equalsIgnoreCase("localhost") && !name.equals("127.0.0.1") && !name.equals("[::1]")) return false;
+        return host.substring(colon + 1).equals(Integer.toString(getPort()));
+    }
+
+    private void handle(HttpExchange exchange, Query query) throws IOException {
+        int status = 200;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+            body.write("Forbidden host\n".getBytes(StandardCharsets.US_ASCII));
+            respond(exchange, 403, body);
+            return;
+        }
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String path = params.get("path");
+            if (path == null) throw new IllegalArgumentException("Expected path parameter");
+            CachedFile cached = open(Paths.get(path));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.US_ASCII));
+            synchronized (cached) {
+                query.run(cached, params, out);
+            }
+            out.flush();
+        } catch (AccessDeniedException e) {
+            status = 403;
+            body.reset();
+            body.write(("File is not under the root: " + e.getFile() + "\n").getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchFileException e) {
+            status = 404;
+            body.reset();
+            body.write(("File is not found: " + e.getFile() + "\n").getBytes(StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException | ElfException | InputMismatchException e) {
+            status = e instanceof IllegalArgumentException ? 400 : 422;
+            body.reset();
+            body.write((e.getMessage() + "\n").getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException | RuntimeException e) {
+            status = 500;
+            body.reset();
+            body.write((e + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        respond(exchange, status, body);
+    }
+
+    private static void respond(HttpExchange exchange, int status, ByteArrayOutputStream body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+        exchange.sendResponseHeaders(status, body.size());
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            body.writeTo(responseBody);
+        }
+    }
+
+    private CachedFile open(Path path) throws IOException {
+        Path realPath = path.toRealPath();
+        if (root != null && !realPath.startsWith(root)) throw new AccessDeniedException(path.toString());
+        BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        String key = realPath + "\0" + attributes.lastModifiedTime().toMillis() + "\0" + attributes.size();
+        synchronized (cache) {
+            CachedFile cached = cache.get(key);
+            if (cached != null) return cached;
+        }
+        CachedFile opened;
+        try (FileChannel channel = FileChannel.open(realPath)) {
+            opened = new CachedFile(ElfFile.from(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+        synchronized (cache) {
+            // Another request may have opened the same file meanwhile; keep the first one.
+            CachedFile cached = cache.putIfAbsent(key, opened);
+            return cached != null ? cached : opened;
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq == -1) {
+                params.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,196 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A function-level comparison of two builds of a program.
+ * <p>
+ * Every function (an {@link ElfSymbol#STT_FUNC} symbol with a size in an executable section) is reduced to a hash of
+ * its instruction words, with the PC-relative immediates of JAL, B-type and AUIPC instructions, and the low part
+ * completing an AUIPC, masked out, so that code which only moved to another address hashes the same. Functions are
+ * then paired by name and the remaining ones by hash, both through hash maps, and only the changed functions are
+ * disassembled.
+ */
+public final class FunctionDiff {
+
+    private static final class Function {
+        final RISCVDisassembler disassembler;
+        final ElfSection section;
+        final String name;
+        final long address;
+        final long size;
+        final long hash;
+
+        Function(RISCVDisassembler disassembler, ElfSection section, String name, long address, long size, long hash) {
+            this.disassembler = disassembler;
+            this.section = section;
+            this.name = name;
+            this.address = address;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    /** Pairs of functions with the same name and different contents. */
+    private final List<Function[]> changed = new ArrayList<>();
+    /** Pairs of functions with the same contents and different names. */
+    private final List<Function[]> renamed = new ArrayList<>();
+    private final List<Function> added = new ArrayList<>();
+    private final List<Function> removed = new ArrayList<>();
+    private int unchanged;
+
+    private FunctionDiff() {
+    }
+
+    public static FunctionDiff compare(RISCVDisassembler oldBuild, RISCVDisassembler newBuild) {
+        FunctionDiff diff = new FunctionDiff();
+        List<Function> oldFunctions = collectFunctions(oldBuild);
+        List<Function> newFunctions = collectFunctions(newBuild);
+
+        // Functions sharing a name (static functions of different files) are paired in address order.
+        Map<String, ArrayDeque<Function>> newByName = new HashMap<>();
+        for (Function function : newFunctions) {
+            if (function.name != null) newByName.computeIfAbsent(function.name, name -> new ArrayDeque<>()).add(function);
+        }
+        Set<Function> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Function> unmatchedOld = new ArrayList<>();
+        for (Function function : oldFunctions) {
+            ArrayDeque<Function> candidates = function.name == null ? null : newByName.get(function.name);
+            Function counterpart = candidates == null ? null : candidates.poll();
+            if (counterpart == null) {
+                unmatchedOld.add(function);
+                continue;
+            }
+            matched.add(counterpart);
+            if (counterpart.hash == function.hash && counterpart.size == function.size) {
+                diff.unchanged++;
+            } else {
+                diff.changed.add(new Function[]{function, counterpart});
+            }
+        }
+
+        Map<Long, ArrayDeque<Function>> newByHash = new HashMap<>();
+        for (Function function : newFunctions) {
+            if (!matched.contains(function)) newByHash.computeIfAbsent(function.hash, hash -> new ArrayDeque<>()).add(function);
+        }
+        for (Function function : unmatchedOld) {
+            ArrayDeque<Function> candidates = newByHash.get(function.hash);
+            Function counterpart = candidates == null ? null : candidates.poll();
+            if (counterpart == null) {
+                diff.removed.add(function);
+            } else {
+                matched.add(counterpart);
+                diff.renamed.add(new Function[]{function, counterpart});
+            }
+        }
+        for (Function function : newFunctions) {
+            if (!matched.contains(function)) diff.added.add(function);
+        }
+        return diff;
+    }
+
+    private static List<Function> collectFunctions(RISCVDisassembler disassembler) {
+        ElfFile file = disassembler.file;
+        List<Function> functions = new ArrayList<>();
+        for (ElfSection section : file.sectionsOfType(ElfSectionHeader.SHT_PROGBITS)) {
+            if ((section.header.flags & ElfSectionHeader.FLAG_EXEC_INSTR) == 0) continue;
+            IntBuffer code = section.contentsAsInts();
+            long sectionEnd = section.header.address + section.header.size;
+            for (Map.Entry<Long, ElfSymbol> entry : ControlFlowGraph.findFunctions(file, section).entrySet()) {
+                long address = entry.getKey();
+                long size = Math.min(entry.getValue().st_size, sectionEnd - address);
+                String name = entry.getValue().getName();
+                int firstWord = (int) ((address - section.header.address) >>> 2);
+                long hash = hash(code, firstWord, (int) (size >>> 2));
+                functions.add(new Function(disassembler, section, name, address, size, hash));
+            }
+        }
+        return functions;
+    }
+
+    /**
+     * FNV-1a over the normalized instruction words, mixed with the word count.
+     */
+    static long hash(IntBuffer code, int firstWord, int words) {
+        long hash = 0xCBF29CE484222325L;
+        int auipcRd = 0;
+        for (int w = firstWord; w < firstWord + words; w++) {
+            int instruction = code.get(w);
+            int opcode = instruction & ((1 << 7) - 1);
+            int rd = instruction >> 7 & ((1 << 5) - 1);
+            int rs1 = instruction >> 15 & ((1 << 5) - 1);
+            int normalized = instruction;
+            if (opcode == 0b1101111 || opcode == 0b0010111) { // JAL, AUIPC: keep rd and opcode
+                normalized = instruction & 0xFFF;
+            } else if (opcode == 0b1100011) { // B-type: keep registers and funct3
+                normalized = instruction & 0x01FFF07F;
+            } else if (auipcRd != 0 && rs1 == auipcRd) {
+                if (opcode == 0b1100111 || opcode == 0b0000011 || opcode == 0b0010011) { // JALR, loads, ADDI and co.
+                    normalized = instruction & 0x000FFFFF;
+                } else if (opcode == 0b0100011) { // stores
+                    normalized = instruction & 0x01FFF07F;
+                }
+            }
+            auipcRd = opcode == 0b0010111 ? rd : 0;
+            hash = (hash ^ (normalized & 0xFFFFFFFFL)) * 0x100000001B3L;
+        }
+        return (hash ^ words) * 0x100000001B3L;
+    }
+
+    public int unchangedCount() {
+        return unchanged;
+    }
+
+    public int changedCount() {
+        return changed.size();
+    }
+
+    /**
+     * Prints one line per function that is not unchanged, followed by the disassembly of both versions of each
+     * changed function, the old lines prefixed with "-" and the new ones with "+".
+     */
+    public void write(PrintWriter out) {
+        for (Function[] pair : changed) {
+            out.printf("changed  %s 0x%08X -> 0x%08X (%d -> %d bytes)%n", pair[0].name, pair[0].address, pair[1].address, pair[0].size, pair[1].size);
+        }
+        for (Function[] pair : renamed) {
+            out.printf("renamed  %s 0x%08X -> %s 0x%08X%n", displayName(pair[0]), pair[0].address, displayName(pair[1]), pair[1].address);
+        }
+        for (Function function : removed) {
+            out.printf("removed  %s 0x%08X (%d bytes)%n", displayName(function), function.address, function.size);
+        }
+        for (Function function : added) {
+            out.printf("added    %s 0x%08X (%d bytes)%n", displayName(function), function.address, function.size);
+        }
+        out.printf("%d unchanged, %d changed, %d renamed, %d removed, %d added%n",
+                unchanged, changed.size(), renamed.size(), removed.size(), added.size());
+        for (Function[] pair : changed) {
+            out.println();
+            out.printf("%s:%n", pair[0].name);
+            writeDisassembly(out, pair[0], "-");
+            writeDisassembly(out, pair[1], "+");
+        }
+    }
+
+    private static String displayName(Function function) {
+        return function.name != null ? function.name : "<unnamed>";
+    }
+
+    private static void writeDisassembly(PrintWriter out, Function function, String prefix) {
+        StringWriter buffer = new StringWriter();
+        PrintWriter bufferWriter = new PrintWriter(buffer);
+        long fromOffset = function.address - function.section.header.address;
+        function.disassembler.disassembleSection(bufferWriter, function.section, fromOffset, fromOffset + function.size);
+        bufferWriter.flush();
+        for (String line : buffer.toString().split(Pattern.quote(System.lineSeparator()))) {
+            out.print(prefix);
+            out.println(line);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfRelocationSection;
+import net.fornwall.jelf.ElfSection;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Prints the operands of an instruction matched by a {@link DecodeTable} entry, as the line following its address and
+ * label. The standard formats of the base ISA and the extensions of {@link StandardExtension} are constants of this
+ * interface; formats of other extensions may be any implementation.
+ */
+@FunctionalInterface
+public interface InstructionFormat {
+    int X = 0;
+    int F = 1;
+    int NONE = -1;
+
+    void print(RISCVDisassembler disassembler, PrintWriter out, String mnemonic, int instruction, ElfSection section,
+               long curOffset, LongPredicate isUnmarked, List<ElfRelocationSection> relocations);
+
+    /** No operands: {@code ecall}. */
+    InstructionFormat NO_OPERANDS = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s%n", mnemonic);
+
+    /** {@code lui rd, imm} with the immediate already shifted, as an unsigned number. */
+    InstructionFormat U = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, %s%n", mnemonic, x(rd(instruction)), Integer.toUnsignedString((instruction >>> 12) << 12));
+
+    /** {@code jal rd, offset  #target}. */
+    InstructionFormat J = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) -> {
+        int offset = RISCVDisassembler.getOffsetForJType(instruction);
+        long jumpTo = d.getJumpTarget(section, relocations, curOffset, offset);
+        out.printf("%6s %s, %d\t#%s%n", mnemonic, x(rd(instruction)), offset, d.getSymbolForAddr(jumpTo, isUnmarked.test(jumpTo)));
+    };
+
+    /** {@code beq rs1, rs2, offset  #target}. */
+    InstructionFormat B = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) -> {
+        int offset = RISCVDisassembler.getOffsetForBType(instruction);
+        long jumpTo = d.getJumpTarget(section, relocations, curOffset, offset);
+        out.printf("%6s %s, %s, %d\t#%s %n", mnemonic, x(rs1(instruction)), x(rs2(instruction)), offset, d.getSymbolForAddr(jumpTo, isUnmarked.test(jumpTo)));
+    };
+
+    /** {@code addi rd, rs1, imm} with a sign-extended immediate. */
+    InstructionFormat I = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, %s, %d%n", mnemonic, x(rd(instruction)), x(rs1(instruction)), instruction >> 20);
+
+    /** {@code xori rd, rs1, imm} with the immediate as the unsigned 12-bit field, also used for slli and srli. */
+    InstructionFormat I_UNSIGNED = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, %s, %d%n", mnemonic, x(rd(instruction)), x(rs1(instruction)), instruction >>> 20);
+
+    /** {@code srai rd, rs1, shamt} with a 5-bit shift amount. */
+    InstructionFormat SHAMT = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, %s, %d%n", mnemonic, x(rd(instruction)), x(rs1(instruction)), rs2(instruction));
+
+    /** {@code lw rd, imm(rs1)}. */
+    InstructionFormat LOAD = load(X);
+
+    /** {@code sw rs2, imm(rs1)}. */
+    InstructionFormat STORE = store(X);
+
+    /** {@code add rd, rs1, rs2}. */
+    InstructionFormat R = registers(X, X, X, false);
+
+    /** {@code clz rd, rs1}. */
+    InstructionFormat UNARY = registers(X, X, NONE, false);
+
+    /** {@code fence pred, succ} as printed since the first version, the upper and lower part of the 12-bit field. */
+    InstructionFormat FENCE = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) -> {
+        int imm = instruction >>> 20;
+        out.printf("%6s %d, %d%n", mnemonic, imm >>> 4 << 4, imm & ((1 << 4) - 1));
+    };
+
+    /** {@code csrrw rd, csr, rs1}, the source printed as a register also for the immediate forms. */
+    InstructionFormat CSR = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, %s, %s%n", mnemonic, x(rd(instruction)), instruction >>> 20, x(rs1(instruction)));
+
+    /** {@code amoadd.w.aqrl rd, rs2, (rs1)}. */
+    InstructionFormat AMO = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, %s, (%s)%n", mnemonic + ordering(instruction), x(rd(instruction)), x(rs2(instruction)), x(rs1(instruction)));
+
+    /** {@code lr.w rd, (rs1)}. */
+    InstructionFormat LR = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, (%s)%n", mnemonic + ordering(instruction), x(rd(instruction)), x(rs1(instruction)));
+
+    /** {@code fmadd.s rd, rs1, rs2, rs3[, rm]}. */
+    InstructionFormat R4 = (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+            out.printf("%6s %s, %s, %s, %s%s%n", mnemonic, f(rd(instruction)), f(rs1(instruction)), f(rs2(instruction)),
+                    f(instruction >>> 27), roundingMode(instruction));
+
+    /**
+     * Returns the format printing rd, rs1 and rs2, each an integer ({@link #X}) or floating-point ({@link #F}) register
+     * or absent ({@link #NONE}), followed by the rounding mode if it has one and it is not the dynamic one.
+     */
+    static InstructionFormat registers(int rdClass, int rs1Class, int rs2Class, boolean rounding) {
+        return (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) -> {
+            String operands = register(rdClass, rd(instruction)) + ", " + register(rs1Class, rs1(instruction));
+            if (rs2Class != NONE) operands += ", " + register(rs2Class, rs2(instruction));
+            out.printf("%6s %s%s%n", mnemonic, operands, rounding ? roundingMode(instruction) : "");
+        };
+    }
+
+    /** Returns the format of a load into a register of the class. */
+    static InstructionFormat load(int rdClass) {
+        return (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) ->
+                out.printf("%6s %s, %d(%s)%n", mnemonic, register(rdClass, rd(instruction)), instruction >> 20, x(rs1(instruction)));
+    }
+
+    /** Returns the format of a store from a register of the class. */
+    static InstructionFormat store(int rs2Class) {
+        return (d, out, mnemonic, instruction, section, curOffset, isUnmarked, relocations) -> {
+            int imm = (instruction >> 25) << 5 | rd(instruction);
+            out.printf("%6s %s, %d(%s)%n", mnemonic, register(rs2Class, rs2(instruction)), imm, x(rs1(instruction)));
+        };
+    }
+
+    private static int rd(int instruction) {
+        return instruction >> 7 & ((1 << 5) - 1);
+    }
+
+    private static int rs1(int instruction) {
+        return instruction >> 15 & ((1 << 5) - 1);
+    }
+
+    private static int rs2(int instruction) {
+        return instruction >> 20 & ((1 << 5) - 1);
+    }
+
+    private static String x(int reg) {
+        return RISCVDisassembler.getRegisterString(reg);
+    }
+
+    private static String f(int reg) {
+        return RISCVDisassembler.getFloatRegisterString(reg);
+    }
+
+    private static String register(int registerClass, int reg) {
+        return registerClass == F ? f(reg) : x(reg);
+    }
+
+    /** The {@code .aq}, {@code .rl} or {@code .aqrl} suffix of an atomic instruction. */
+    private static String ordering(int instruction) {
+        return new String[]{"", ".rl", ".aq", ".aqrl"}[instruction >>> 25 & 3];
+    }
+
+    private static String roundingMode(int instruction) {
+        return new String[]{", rne", ", rtz", ", rdn", ", rup", ", rmm", ", 5", ", 6", ""}[instruction >>> 12 & 7];
+    }
+}
@@ -0,0 +1,231 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfSection;
+
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A pattern over raw instruction words, such as {@code csrrw csr=mtvec}, {@code store rs1=sp} or
+ * {@code jalr rs1=ra}.
+ * <p>
+ * A pattern is a mnemonic, or one of the groups {@code load}, {@code store}, {@code branch} and {@code csr}, followed by
+ * any number of {@code field=value} constraints on {@code rd}, {@code rs1}, {@code rs2} (register names or numbers) and
+ * {@code csr} (a CSR name or number). Against a {@link DecodeTable}, it compiles to one (mask, value) pair per entry
+ * of the table it covers, and a word matches when {@code (word & mask) == value} for any of them and the table decodes
+ * it as one of those entries, so that a word is found as the instruction the disassembler prints it as.
+ */
+public final class InstructionPattern {
+
+    private static final Set<String> GROUPS = new HashSet<>(Arrays.asList("branch", "load", "store", "csr"));
+    private static final Map<String, Integer> CSRS = new HashMap<>();
+
+    static {
+        String[] csrNames = {"ustatus", "fflags", "frm", "fcsr", "sstatus", "sie", "stvec", "sscratch", "sepc", "scause",
+                "stval", "sip", "satp", "mstatus", "misa", "medeleg", "mideleg", "mie", "mtvec", "mcounteren",
+                "mscratch", "mepc", "mcause", "mtval", "mip", "cycle", "time", "instret", "mvendorid", "marchid",
+                "mimpid", "mhartid"};
+        int[] csrNumbers = {0x000, 0x001, 0x002, 0x003, 0x100, 0x104, 0x105, 0x140, 0x141, 0x142,
+                0x143, 0x144, 0x180, 0x300, 0x301, 0x302, 0x303, 0x304, 0x305, 0x306,
+                0x340, 0x341, 0x342, 0x343, 0x344, 0xC00, 0xC01, 0xC02, 0xF11, 0xF12,
+                0xF13, 0xF14};
+        for (int i = 0; i < csrNames.length; i++) CSRS.put(csrNames[i], csrNumbers[i]);
+    }
+
+    private static final int CHUNK_WORDS = 1 << 16;
+
+    private final String source;
+    /** The mnemonic or group. */
+    private final String head;
+    private final int fieldMask;
+    private final int fieldValue;
+
+    private InstructionPattern(String source, String head, int fieldMask, int fieldValue) {
+        this.source = source;
+        this.head = head;
+        this.fieldMask = fieldMask;
+        this.fieldValue = fieldValue;
+    }
+
+    /**
+     * Compiles a pattern, throwing IllegalArgumentException if it does not parse or names a mnemonic of no known
+     * extension, see {@link IsaRegistry}.
+     */
+    public static InstructionPattern compile(String pattern) {
+        String[] tokens = pattern.trim().split("\\s+");
+        String head = tokens[0].toLowerCase();
+        if (!GROUPS.contains(head) && !isKnownMnemonic(head))
+            throw new IllegalArgumentException("Unknown mnemonic in pattern: " + head);
+        int fieldMask = 0;
+        int fieldValue = 0;
+        for (int t = 1; t < tokens.length; t++) {
+            int eq = tokens[t].indexOf('=');
+            if (eq == -1) throw new IllegalArgumentException("Expected field=value in pattern: " + tokens[t]);
+            String field = tokens[t].substring(0, eq).toLowerCase();
+            String value = tokens[t].substring(eq + 1).toLowerCase();
+            switch (field) {
+                case "rd":
+                    fieldMask |= 0x1F << 7;
+                    fieldValue |= parseRegister(value) << 7;
+                    break;
+                case "rs1":
+                    fieldMask |= 0x1F << 15;
+                    fieldValue |= parseRegister(value) << 15;
+                    break;
+                case "rs2":
+                    fieldMask |= 0x1F << 20;
+                    fieldValue |= parseRegister(value) << 20;
+                    break;
+                case "csr":
+                    fieldMask |= 0xFFF << 20;
+                    fieldValue |= parseCsr(value) << 20;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown field in pattern: " + field);
+            }
+        }
+        return new InstructionPattern(pattern, head, fieldMask, fieldValue);
+    }
+
+    private static boolean isKnownMnemonic(String mnemonic) {
+        for (DecodeTable.Entry entry : DecodeTable.of(IsaRegistry.known()).entries()) {
+            if (entry.mnemonic.equals(mnemonic)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the pattern names the entry, by its mnemonic or by its group: the branches, the integer and
+     * floating-point loads and stores, or the CSR instructions.
+     */
+    private boolean covers(DecodeTable.Entry entry) {
+        switch (head) {
+            case "branch":
+                return entry.opcode() == 0b1100011;
+            case "load":
+                return entry.opcode() == 0b0000011 || entry.opcode() == 0b0000111;
+            case "store":
+                return entry.opcode() == 0b0100011 || entry.opcode() == 0b0100111;
+            case "csr":
+                return entry.opcode() == 0b1110011 && (entry.mask & 0x7000) == 0x7000 && (entry.match & 0x3000) != 0;
+            default:
+                return entry.mnemonic.equals(head);
+        }
+    }
+
+    private static int parseRegister(String name) {
+        for (int reg = 0; reg < 32; reg++) {
+            if (RISCVDisassembler.getRegisterString(reg).equals(name) || name.equals("x" + reg)) return reg;
+        }
+        if (name.equals("fp")) return 8;
+        throw new IllegalArgumentException("Unknown register in pattern: " + name);
+    }
+
+    private static int parseCsr(String name) {
+        Integer csr = CSRS.get(name);
+        if (csr != null) return csr;
+        int number;
+        try {
+            number = Integer.decode(name);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown CSR in pattern: " + name);
+        }
+        if (number < 0 || number > 0xFFF) throw new IllegalArgumentException("CSR out of range in pattern: " + name);
+        return number;
+    }
+
+    /**
+     * Whether the word matches the pattern when decoded with the table.
+     */
+    public boolean matches(DecodeTable table, int word) {
+        DecodeTable.Entry entry = table.find(word);
+        return entry != null && covers(entry) && (word & fieldMask) == fieldValue;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Returns the offsets of the words of the section matching any of the patterns when decoded with the table, in
+     * ascending order. The section is scanned in chunks on the pool, testing the (mask, value) pairs of all patterns
+     * against each word and decoding only the words passing the test.
+     */
+    static long[] scan(ElfSection section, List<InstructionPattern> patterns, DecodeTable table, ForkJoinPool pool) {
+        List<int[]> pairs = new ArrayList<>();
+        for (InstructionPattern pattern : patterns) {
+            for (DecodeTable.Entry entry : table.entries()) {
+                if (pattern.covers(entry)) pairs.add(new int[]{entry.mask | pattern.fieldMask, entry.match | pattern.fieldValue});
+            }
+        }
+        int[] masks = new int[pairs.size()];
+        int[] values = new int[pairs.size()];
+        for (int k = 0; k < masks.length; k++) {
+            masks[k] = pairs.get(k)[0];
+            values[k] = pairs.get(k)[1];
+        }
+        if (masks.length == 0) return new long[0];
+
+        // Absolute reads of a shared buffer are safe from several threads.
+        IntBuffer code = section.contentsAsInts();
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        int words = (int) (section.header.size >>> 2);
+        for (int start = 0; start < words; start += CHUNK_WORDS) {
+            int from = start;
+            int to = Math.min(words, start + CHUNK_WORDS);
+            tasks.add(() -> scan(code, from, to, masks, values, patterns, table));
+        }
+        try {
+            List<long[]> parts = new ArrayList<>();
+            int total = 0;
+            for (Future<long[]> future : pool.invokeAll(tasks)) {
+                long[] part = future.get();
+                parts.add(part);
+                total += part.length;
+            }
+            long[] hits = new long[total];
+            int position = 0;
+            for (long[] part : parts) {
+                System.arraycopy(part, 0, hits, position, part.length);
+                position += part.length;
+            }
+            return hits;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while searching", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to search", e.getCause());
+        }
+    }
+
+    private static long[] scan(IntBuffer code, int from, int to, int[] masks, int[] values, List<InstructionPattern> patterns,
+                               DecodeTable table) {
+        long[] hits = new long[16];
+        int count = 0;
+        for (int w = from; w < to; w++) {
+            int word = code.get(w);
+            for (int i = 0; i < masks.length; i++) {
+                if ((word & masks[i]) == values[i]) {
+                    if (matches(patterns, table, word)) {
+                        if (count == hits.length) hits = Arrays.copyOf(hits, count * 2);
+                        hits[count++] = (long) w << 2;
+                    }
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(hits, count);
+    }
+
+    private static boolean matches(List<InstructionPattern> patterns, DecodeTable table, int word) {
+        for (InstructionPattern pattern : patterns) {
+            if (pattern.matches(table, word)) return true;
+        }
+        return false;
+    }
+}
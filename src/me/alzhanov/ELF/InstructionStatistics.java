@@ -0,0 +1,384 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.*;
+
+import java.io.PrintWriter;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Instruction statistics of the executable sections of a file: a mnemonic histogram, counts per ISA extension, register
+ * reads and writes, and per-function totals with branch density. A function whose symbol contains that of another
+ * one is counted up to the start of the other.
+ * <p>
+ * Instructions are classified through the {@link DecodeTable} of the disassembler, so into the mnemonics and extensions
+ * {@link RISCVDisassembler#doDisassemble} prints them as, but without producing any text. Register reads and writes
+ * are those of the integer registers. Sections are scanned in chunks on a pool, each chunk counting into primitive arrays of its own,
+ * and the arrays are summed once all chunks are done.
+ */
+public final class InstructionStatistics {
+
+    /** Per-function counters. */
+    private static final int FN_INSTRUCTIONS = 0;
+    private static final int FN_BRANCHES = 1;
+    private static final int FN_JUMPS = 2;
+    private static final int FN_LOADS = 3;
+    private static final int FN_STORES = 4;
+    private static final int FN_MULDIV = 5;
+    private static final int FN_UNKNOWN = 6;
+    private static final int FN_STRIDE = 7;
+
+    private static final int CHUNK_WORDS = 1 << 16;
+
+    /**
+     * The mnemonics of the entries of a {@link DecodeTable}, numbered in the order of the entries, the entries of one
+     * mnemonic, such as the fences of every funct3, sharing its number, and followed by "unknown".
+     */
+    static final class Mnemonics {
+        final DecodeTable table;
+        final String[] names;
+        /** The names of the extensions of the table, as written in ISA strings, followed by "unknown". */
+        final String[] extensions;
+        /** The extension of each mnemonic. */
+        final int[] extensionOf;
+        /** The major opcode of each mnemonic, -1 for "unknown". */
+        final int[] opcodeOf;
+        /** Whether the rs2 field of each mnemonic is an operand rather than fixed. */
+        final boolean[] hasRs2;
+        /** The number of the M extension, or -1 if the table does not have it. */
+        final int mulDiv;
+        final int unknown;
+        /** The offsets of the register read and write counters in the image counters, and their length. */
+        final int reads;
+        final int writes;
+        final int imageLength;
+        /** The mnemonic of each entry. */
+        private final int[] ofEntry;
+
+        Mnemonics(DecodeTable table) {
+            this.table = table;
+            List<String> extensionNames = new ArrayList<>();
+            for (IsaExtension extension : table.extensions()) extensionNames.add(displayName(extension.name()));
+            extensionNames.add("unknown");
+            extensions = extensionNames.toArray(new String[0]);
+
+            Map<String, Integer> numbers = new LinkedHashMap<>();
+            List<Integer> extension = new ArrayList<>();
+            List<Integer> opcode = new ArrayList<>();
+            List<Boolean> rs2 = new ArrayList<>();
+            ofEntry = new int[table.entries().size()];
+            for (DecodeTable.Entry entry : table.entries()) {
+                Integer number = numbers.get(entry.mnemonic);
+                if (number == null) {
+                    number = numbers.size();
+                    numbers.put(entry.mnemonic, number);
+                    extension.add(extensionNames.indexOf(displayName(entry.extension)));
+                    opcode.add(entry.opcode());
+                    rs2.add((entry.mask & 0x01F00000) == 0);
+                }
+                ofEntry[entry.index] = number;
+            }
+            unknown = numbers.size();
+            numbers.put("unknown", unknown);
+            extension.add(extensions.length - 1);
+            opcode.add(-1);
+            rs2.add(false);
+            names = numbers.keySet().toArray(new String[0]);
+            extensionOf = extension.stream().mapToInt(Integer::intValue).toArray();
+            opcodeOf = opcode.stream().mapToInt(Integer::intValue).toArray();
+            hasRs2 = new boolean[rs2.size()];
+            for (int m = 0; m < hasRs2.length; m++) hasRs2[m] = rs2.get(m);
+            mulDiv = extensionNames.indexOf("M");
+            reads = names.length;
+            writes = reads + 32;
+            imageLength = writes + 32;
+        }
+
+        /**
+         * Returns the number of the mnemonic the disassembler prints for the instruction.
+         */
+        int classify(int instruction) {
+            DecodeTable.Entry entry = table.find(instruction);
+            return entry == null ? unknown : ofEntry[entry.index];
+        }
+
+        int indexOf(String mnemonic) {
+            return Arrays.asList(names).indexOf(mnemonic);
+        }
+
+        /** The name as spelled in an ISA string, such as Zicsr for ZICSR. */
+        private static String displayName(String name) {
+            return name.length() <= 1 ? name : name.charAt(0) + name.substring(1).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Mnemonics mnemonics;
+    /** Layout: a counter per mnemonic, then register reads, then register writes. */
+    private final long[] image;
+    private final String[] functionName;
+    private final long[] functionAddress;
+    /** FN_STRIDE counters per function. */
+    private final long[] functions;
+
+    private InstructionStatistics(Mnemonics mnemonics, long[] image, String[] functionName, long[] functionAddress, long[] functions) {
+        this.mnemonics = mnemonics;
+        this.image = image;
+        this.functionName = functionName;
+        this.functionAddress = functionAddress;
+        this.functions = functions;
+    }
+
+    static InstructionStatistics build(RISCVDisassembler disassembler, ForkJoinPool pool) {
+        ElfFile file = disassembler.file;
+        disassembler.materializeSections();
+        Mnemonics mnemonics = new Mnemonics(disassembler.decodeTable);
+
+        List<String> names = new ArrayList<>();
+        List<Long> addresses = new ArrayList<>();
+        List<Callable<long[][]>> tasks = new ArrayList<>();
+        List<Integer> taskFirstFunction = new ArrayList<>();
+        for (ElfSection section : file.sectionsOfType(ElfSectionHeader.SHT_PROGBITS)) {
+            if ((section.header.flags & ElfSectionHeader.FLAG_EXEC_INSTR) == 0) continue;
+            TreeMap<Long, ElfSymbol> found = ControlFlowGraph.findFunctions(file, section);
+            long[] start = new long[found.size()];
+            long[] end = new long[found.size()];
+            int base = names.size();
+            int i = 0;
+            for (Map.Entry<Long, ElfSymbol> function : found.entrySet()) {
+                start[i] = function.getKey() - section.header.address;
+                end[i] = start[i] + function.getValue().st_size;
+                names.add(function.getValue().getName());
+                addresses.add(function.getKey());
+                i++;
+            }
+            // A function containing the next one ends at its start, so the ends are sorted like the starts.
+            for (int k = 0; k + 1 < end.length; k++) end[k] = Math.min(end[k], start[k + 1]);
+            int words = (int) (section.header.size >>> 2);
+            for (int from = 0; from < words; from += CHUNK_WORDS) {
+                int chunkFrom = from;
+                int chunkTo = Math.min(words, from + CHUNK_WORDS);
+                // The functions overlapping the chunk, which get counters of their own in the task.
+                int first = lowerBound(end, (long) chunkFrom << 2, true);
+                int last = lowerBound(start, (long) chunkTo << 2, false);
+                tasks.add(() -> scan(mnemonics, section.contentsAsInts(), chunkFrom, chunkTo, start, end, first, last));
+                taskFirstFunction.add(base + first);
+            }
+        }
+
+        long[] image = new long[mnemonics.imageLength];
+        long[] functions = new long[names.size() * FN_STRIDE];
+        try {
+            int task = 0;
+            for (Future<long[][]> future : pool.invokeAll(tasks)) {
+                long[][] partial = future.get();
+                for (int k = 0; k < image.length; k++) image[k] += partial[0][k];
+                int offset = taskFirstFunction.get(task++) * FN_STRIDE;
+                for (int k = 0; k < partial[1].length; k++) functions[offset + k] += partial[1][k];
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while collecting statistics", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to collect statistics", e.getCause());
+        }
+        long[] functionAddress = new long[addresses.size()];
+        for (int i = 0; i < functionAddress.length; i++) functionAddress[i] = addresses.get(i);
+        return new InstructionStatistics(mnemonics, image, names.toArray(new String[0]), functionAddress, functions);
+    }
+
+    /** The first index whose value is greater than (or, unless strict, equal to) the key. */
+    private static int lowerBound(long[] sorted, long key, boolean strict) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (strict ? sorted[mid] <= key : sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Counts words [from, to) of the code. Returns the image counters and the counters of functions [first, last),
+     * whose section offsets are given by start and end.
+     */
+    private static long[][] scan(Mnemonics mnemonics, IntBuffer code, int from, int to, long[] start, long[] end, int first, int last) {
+        long[] image = new long[mnemonics.imageLength];
+        long[] functions = new long[Math.max(0, last - first) * FN_STRIDE];
+        int reads = mnemonics.reads;
+        int writes = mnemonics.writes;
+        int function = first;
+        for (int w = from; w < to; w++) {
+            int instruction = code.get(w);
+            int mnemonic = mnemonics.classify(instruction);
+            image[mnemonic]++;
+            int opcode = instruction & ((1 << 7) - 1);
+            int rd = instruction >> 7 & ((1 << 5) - 1);
+            int rs1 = instruction >> 15 & ((1 << 5) - 1);
+            int rs2 = instruction >> 20 & ((1 << 5) - 1);
+            // Only the integer registers are counted.
+            if (mnemonic != mnemonics.unknown) {
+                switch (opcode) {
+                    case 0b0110111: case 0b0010111: case 0b1101111: // U and J
+                        image[writes + rd]++;
+                        break;
+                    case 0b1100011: case 0b0100011: // B and S
+                        image[reads + rs1]++;
+                        image[reads + rs2]++;
+                        break;
+                    case 0b0110011: case 0b0101111: // R and AMO, where some such as zext.h and lr.w have no rs2
+                        image[writes + rd]++;
+                        image[reads + rs1]++;
+                        if (mnemonics.hasRs2[mnemonic]) image[reads + rs2]++;
+                        break;
+                    case 0b1100111: case 0b0000011: case 0b0010011: // I
+                        image[writes + rd]++;
+                        image[reads + rs1]++;
+                        break;
+                    case 0b0000111: case 0b0100111: // floating-point loads and stores
+                        image[reads + rs1]++;
+                        break;
+                    case 0b1110011: // CSR, where the immediate forms have no rs1
+                        if ((instruction & 0x3000) != 0) {
+                            image[writes + rd]++;
+                            if ((instruction & 0x4000) == 0) image[reads + rs1]++;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            long offset = (long) w << 2;
+            while (function < last && end[function] <= offset) function++;
+            if (function < last && start[function] <= offset) {
+                int base = (function - first) * FN_STRIDE;
+                functions[base + FN_INSTRUCTIONS]++;
+                if (opcode == 0b1100011) functions[base + FN_BRANCHES]++;
+                if (opcode == 0b1101111 || opcode == 0b1100111) functions[base + FN_JUMPS]++;
+                if (opcode == 0b0000011 || opcode == 0b0000111) functions[base + FN_LOADS]++;
+                if (opcode == 0b0100011 || opcode == 0b0100111) functions[base + FN_STORES]++;
+                if (mnemonics.extensionOf[mnemonic] == mnemonics.mulDiv) functions[base + FN_MULDIV]++;
+                if (mnemonic == mnemonics.unknown) functions[base + FN_UNKNOWN]++;
+            }
+        }
+        return new long[][]{image, functions};
+    }
+
+    /** The number of instructions decoded as the mnemonic, or as nothing known for "unknown". */
+    public long count(String mnemonic) {
+        int index = mnemonics.indexOf(mnemonic);
+        if (index == -1) throw new IllegalArgumentException("Unknown mnemonic: " + mnemonic);
+        return image[index];
+    }
+
+    public long instructionCount() {
+        long total = 0;
+        for (int m = 0; m < mnemonics.names.length; m++) total += image[m];
+        return total;
+    }
+
+    private long[] extensionCounts() {
+        long[] counts = new long[mnemonics.extensions.length];
+        for (int m = 0; m < mnemonics.names.length; m++) counts[mnemonics.extensionOf[m]] += image[m];
+        return counts;
+    }
+
+    private long branchCount() {
+        long branches = 0;
+        for (int m = 0; m < mnemonics.names.length; m++) {
+            if (mnemonics.opcodeOf[m] == 0b1100011) branches += image[m];
+        }
+        return branches;
+    }
+
+    private static double density(long part, long whole) {
+        return whole == 0 ? 0 : (double) part / whole;
+    }
+
+    public void writeText(PrintWriter out) {
+        long instructions = instructionCount();
+        out.printf("Instructions: %d, branches: %d (%.2f%%)%n", instructions, branchCount(), 100 * density(branchCount(), instructions));
+        out.println("Extensions:");
+        long[] extensions = extensionCounts();
+        for (int e = 0; e < mnemonics.extensions.length; e++) {
+            if (extensions[e] != 0) out.printf("%10s %d%n", mnemonics.extensions[e], extensions[e]);
+        }
+        out.println("Mnemonics:");
+        Integer[] order = new Integer[mnemonics.names.length];
+        for (int m = 0; m < order.length; m++) order[m] = m;
+        Arrays.sort(order, (a, b) -> Long.compare(image[b], image[a]));
+        for (int m : order) {
+            if (image[m] != 0) out.printf("%10s %d%n", mnemonics.names[m], image[m]);
+        }
+        out.println("Registers:");
+        out.printf("%10s %8s %8s%n", "", "Reads", "Writes");
+        for (int r = 0; r < 32; r++) {
+            if (image[mnemonics.reads + r] != 0 || image[mnemonics.writes + r] != 0)
+                out.printf("%10s %8d %8d%n", RISCVDisassembler.getRegisterString(r), image[mnemonics.reads + r], image[mnemonics.writes + r]);
+        }
+        out.println("Functions:");
+        out.printf("%10s %12s %8s %8s %8s %8s %8s %8s %s%n", "Address", "Instructions", "Branches", "Density", "Jumps", "Loads", "Stores", "MulDiv", "Name");
+        for (int f = 0; f < functionName.length; f++) {
+            int base = f * FN_STRIDE;
+            out.printf("0x%08X %12d %8d %7.2f%% %8d %8d %8d %8d %s%n", functionAddress[f], functions[base + FN_INSTRUCTIONS],
+                    functions[base + FN_BRANCHES], 100 * density(functions[base + FN_BRANCHES], functions[base + FN_INSTRUCTIONS]),
+                    functions[base + FN_JUMPS], functions[base + FN_LOADS], functions[base + FN_STORES], functions[base + FN_MULDIV],
+                    functionName[f]);
+        }
+    }
+
+    public void writeJson(PrintWriter out) {
+        long instructions = instructionCount();
+        out.printf("{\"instructions\":%d,\"branches\":%d,\"extensions\":{", instructions, branchCount());
+        long[] extensions = extensionCounts();
+        for (int e = 0; e < mnemonics.extensions.length; e++) {
+            out.printf("%s\"%s\":%d", e == 0 ? "" : ",", mnemonics.extensions[e], extensions[e]);
+        }
+        out.print("},\"mnemonics\":{");
+        boolean first = true;
+        for (int m = 0; m < mnemonics.names.length; m++) {
+            if (image[m] == 0) continue;
+            out.printf("%s\"%s\":%d", first ? "" : ",", mnemonics.names[m], image[m]);
+            first = false;
+        }
+        out.print("},\"registers\":{");
+        for (int r = 0; r < 32; r++) {
+            out.printf("%s\"%s\":{\"reads\":%d,\"writes\":%d}", r == 0 ? "" : ",", RISCVDisassembler.getRegisterString(r), image[mnemonics.reads + r], image[mnemonics.writes + r]);
+        }
+        out.print("},\"functions\":[");
+        for (int f = 0; f < functionName.length; f++) {
+            int base = f * FN_STRIDE;
+            out.printf("%s{\"name\":%s,\"address\":%d,\"instructions\":%d,\"branches\":%d,\"branchDensity\":%s,"
+                            + "\"jumps\":%d,\"loads\":%d,\"stores\":%d,\"mulDiv\":%d,\"unknown\":%d}",
+                    f == 0 ? "" : ",", jsonString(functionName[f]), functionAddress[f] & 0xFFFFFFFFL, functions[base + FN_INSTRUCTIONS],
+                    functions[base + FN_BRANCHES], Double.toString(density(functions[base + FN_BRANCHES], functions[base + FN_INSTRUCTIONS])),
+                    functions[base + FN_JUMPS], functions[base + FN_LOADS], functions[base + FN_STORES], functions[base + FN_MULDIV],
+                    functions[base + FN_UNKNOWN]);
+        }
+        out.println("]}");
+    }
+
+    private static String jsonString(String s) {
+        if (s == null) return "null";
+        StringBuilder builder = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,699 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfFile;
+import net.fornwall.jelf.ElfSegment;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.List;
+
+/**
+ * Executes RV32IM code of an executable, for running single functions of firmware without an emulator.
+ * <p>
+ * The PT_LOAD segments are copied into one flat little-endian memory, followed by a stack. Code is executed a basic
+ * block at a time: the first time a block is reached its instructions are decoded, up to and including the next jump,
+ * branch or system instruction, into an array of pre-decoded ops (an opcode, the registers and an immediate in which
+ * jump targets and AUIPC results are already resolved), and the array is cached by its address. Running a block is a
+ * loop over its ops without any decoding.
+ * <p>
+ * The memory is split into pages, and the pages holding decoded code are flagged. A store into a flagged page drops the
+ * cached blocks of that page, and if it hits the block being run, the rest of the block is decoded again before it is
+ * run, so self-modifying code behaves as on hardware with FENCE.I after every store.
+ * <p>
+ * Blocks count their executions, and a block that gets hot is translated by {@link Translator}, together with the hot
+ * blocks around it, into JVM bytecode that runs instead of the block from then on.
+ * <p>
+ * Zicsr instructions and anything outside RV32IM stop execution as {@link Stop#ILLEGAL}. Instances are not thread-safe.
+ */
+public final class Interpreter {
+    /** Why {@link #run} returned. */
+    public enum Stop {
+        /** Returned to {@link #RETURN_ADDRESS} from a function started by {@link #call}. */
+        RETURN,
+        /** Reached an ECALL the handler did not handle; the PC is after it. */
+        ECALL,
+        /** Reached an EBREAK; the PC is at it. */
+        EBREAK,
+        /** Reached an instruction that is not RV32IM; the PC is at it. */
+        ILLEGAL,
+        /** Accessed memory outside the image or fetched from a misaligned address; see {@link #getFaultAddress}. */
+        FAULT,
+        /** Executed the number of instructions it was given. */
+        LIMIT
+    }
+
+    /**
+     * Handles ECALL instructions, such as the semihosting calls of a test harness.
+     */
+    @FunctionalInterface
+    public interface EcallHandler {
+        /**
+         * Returns whether to continue after the ECALL, which the interpreter has already stepped over.
+         */
+        boolean ecall(Interpreter interpreter);
+    }
+
+    public static final int DEFAULT_STACK_SIZE = 1 << 20;
+    /** The return address {@link #call} passes in ra, which stops {@link #run} with {@link Stop#RETURN}. */
+    public static final int RETURN_ADDRESS = 0xFFFFFFF0;
+    /** The executions after which a block is translated to JVM bytecode, see {@link #setTranslationThreshold}. */
+    public static final int DEFAULT_TRANSLATION_THRESHOLD = 1000;
+
+    static final int PAGE_SHIFT = 10;
+    static final int MAX_BLOCK = 64;
+    /** The register writes to x0 are redirected to. */
+    static final int SCRATCH = 32;
+
+    // Pre-decoded ops. The first word of an op holds the opcode in bits 7:0 and rd, rs1 and rs2 in the bytes above,
+    // the second word the immediate.
+    static final int NOP = 0, LI = 1, JAL = 2, JALR = 3,
+            BEQ = 4, BNE = 5, BLT = 6, BGE = 7, BLTU = 8, BGEU = 9,
+            LB = 10, LH = 11, LW = 12, LBU = 13, LHU = 14, SB = 15, SH = 16, SW = 17,
+            ADDI = 18, SLTI = 19, SLTIU = 20, XORI = 21, ORI = 22, ANDI = 23, SLLI = 24, SRLI = 25, SRAI = 26,
+            ADD = 27, SUB = 28, SLL = 29, SLT = 30, SLTU = 31, XOR = 32, SRL = 33, SRA = 34, OR = 35, AND = 36,
+            MUL = 37, MULH = 38, MULHSU = 39, MULHU = 40, DIV = 41, DIVU = 42, REM = 43, REMU = 44,
+            FENCE_I = 45, ECALL = 46, EBREAK = 47, ILLEGAL = 48, FETCH_FAULT = 49;
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** A decoded basic block. */
+    static final class Block {
+        final int address;
+        /** Two words per op, see {@link #NOP}. */
+        final int[] ops;
+        /** The address after the last instruction of the block. */
+        final int end;
+        long executions;
+        /** The translation of the region of blocks starting with this one, once it is hot. */
+        Translator.Compiled translation;
+        /** Whether the block is part of any translation. */
+        boolean translated;
+
+        Block(int address, int[] ops) {
+            this.address = address;
+            this.ops = ops;
+            this.end = address + ops.length * 2;
+        }
+    }
+
+    private final int base;
+    private final byte[] memory;
+    /** The cached blocks by (address - base) / 4. */
+    private final Block[] blocks;
+    /** Flags the pages holding code of cached blocks. */
+    private final boolean[] codePages;
+    private final int[] x = new int[33];
+    private int pc;
+    private long instructions;
+    private int faultAddress;
+    private EcallHandler ecallHandler;
+    private int translationThreshold = DEFAULT_TRANSLATION_THRESHOLD;
+
+    public Interpreter(ElfFile file) {
+        this(file, DEFAULT_STACK_SIZE);
+    }
+
+    /**
+     * Loads the PT_LOAD segments of the file, zero-filling their parts not in the file, with a stack of at least the size
+     * after the highest of them. The PC is the entry point and sp the top of the stack.
+     */
+    public Interpreter(ElfFile file, int stackSize) {
+        if (file.objectSize != ElfFile.CLASS_32 || file.arch != 0xF3 || file.encoding != ElfFile.DATA_LSB)
+            throw new InputMismatchException("That elf is not little-endian RV32.");
+        // The 32-bit fields of the program headers are read sign-extended.
+        long low = Long.MAX_VALUE;
+        long high = Long.MIN_VALUE;
+        for (int i = 0; i < file.num_ph; i++) {
+            ElfSegment segment = file.getProgramHeader(i);
+            if (segment.type != ElfSegment.PT_LOAD || segment.mem_size == 0) continue;
+            long address = segment.virtual_address & 0xFFFFFFFFL;
+            low = Math.min(low, address);
+            high = Math.max(high, address + (segment.mem_size & 0xFFFFFFFFL));
+        }
+        if (low == Long.MAX_VALUE) throw new InputMismatchException("No PT_LOAD segments to execute.");
+        low &= -(1L << PAGE_SHIFT);
+        long size = (high + stackSize - low + (1L << PAGE_SHIFT) - 1) & -(1L << PAGE_SHIFT);
+        if (size > Integer.MAX_VALUE - 8 || low + size > (RETURN_ADDRESS & 0xFFFFFFFFL))
+            throw new InputMismatchException(String.format("Image 0x%X..0x%X is too large to execute.", low, low + size));
+        base = (int) low;
+        memory = new byte[(int) size];
+        for (int i = 0; i < file.num_ph; i++) {
+            ElfSegment segment = file.getProgramHeader(i);
+            if (segment.type != ElfSegment.PT_LOAD || segment.file_size == 0) continue;
+            long length = Math.min(segment.file_size & 0xFFFFFFFFL, segment.mem_size & 0xFFFFFFFFL);
+            ByteBuffer contents = file.parser.slice(segment.offset & 0xFFFFFFFFL, (int) length);
+            contents.get(memory, (int) ((segment.virtual_address & 0xFFFFFFFFL) - low), contents.remaining());
+        }
+        blocks = new Block[memory.length >>> 2];
+        codePages = new boolean[memory.length >>> PAGE_SHIFT];
+        pc = (int) file.entry_point;
+        x[2] = base + memory.length;
+    }
+
+    public void setEcallHandler(EcallHandler ecallHandler) {
+        this.ecallHandler = ecallHandler;
+    }
+
+    /**
+     * Sets the executions of a block after which it and the hot blocks reachable from it by direct jumps are
+     * translated by {@link Translator} into a class of their own for HotSpot to compile. 0 disables translation.
+     */
+    public void setTranslationThreshold(int translationThreshold) {
+        this.translationThreshold = translationThreshold;
+    }
+
+    public int getRegister(int reg) {
+        return reg == 0 ? 0 : x[reg];
+    }
+
+    public void setRegister(int reg, int value) {
+        if (reg != 0) x[reg] = value;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public void setPc(int pc) {
+        this.pc = pc;
+    }
+
+    /** The number of instructions executed so far. */
+    public long getInstructionCount() {
+        return instructions;
+    }
+
+    /** The address of the last access stopping with {@link Stop#FAULT}. */
+    public int getFaultAddress() {
+        return faultAddress;
+    }
+
+    public int readWord(int address) {
+        return (int) INT.get(memory, checkAddress(address, 4));
+    }
+
+    public void writeWord(int address, int value) {
+        int index = checkAddress(address, 4);
+        INT.set(memory, index, value);
+        written(index, 4);
+    }
+
+    public void read(int address, byte[] data) {
+        System.arraycopy(memory, checkAddress(address, data.length), data, 0, data.length);
+    }
+
+    public void write(int address, byte[] data) {
+        int index = checkAddress(address, data.length);
+        System.arraycopy(data, 0, memory, index, data.length);
+        written(index, data.length);
+    }
+
+    private int checkAddress(int address, int size) {
+        int index = address - base;
+        if (Integer.compareUnsigned(index, memory.length - size) > 0)
+            throw new IllegalArgumentException(String.format("0x%08X is outside the image", address));
+        return index;
+    }
+
+    /**
+     * Calls the function at the address with the arguments in a0 to a7 and the stack pointer at the top of the stack,
+     * and returns a0 once it returns. Throws IllegalStateException if it stops in any other way, or has not returned
+     * after maxInstructions.
+     */
+    public int call(int address, long maxInstructions, int... args) {
+        if (args.length > 8) throw new IllegalArgumentException("At most 8 arguments are passed in registers");
+        for (int i = 0; i < args.length; i++) x[10 + i] = args[i];
+        x[1] = RETURN_ADDRESS;
+        x[2] = base + memory.length;
+        pc = address;
+        Stop stop = run(maxInstructions);
+        if (stop != Stop.RETURN) throw new IllegalStateException(String.format("Stopped with %s at 0x%08X", stop, pc));
+        return x[10];
+    }
+
+    /**
+     * Runs from the PC until something stops it or at least maxInstructions were executed. The limit is only checked
+     * between blocks.
+     */
+    public Stop run(long maxInstructions) {
+        long limit = maxInstructions > Long.MAX_VALUE - instructions ? Long.MAX_VALUE : instructions + maxInstructions;
+        int[] x = this.x;
+        byte[] memory = this.memory;
+        int base = this.base;
+        int pc = this.pc;
+        try {
+            while (true) {
+                if (pc == RETURN_ADDRESS) return Stop.RETURN;
+                if (instructions >= limit) return Stop.LIMIT;
+                Block block = block(pc);
+                if (block == null) {
+                    faultAddress = pc;
+                    return Stop.FAULT;
+                }
+                if (block.translation != null) {
+                    long result = block.translation.run(x, memory, this, (int) Math.min(limit - instructions, 1 << 30));
+                    // Otherwise it left at its first instruction, for the block to execute it below.
+                    if (result >>> 32 != 0) {
+                        instructions += result >>> 32;
+                        pc = (int) result;
+                        continue;
+                    }
+                }
+                if (++block.executions == translationThreshold) {
+                    translate(block);
+                    if (block.translation != null) continue;
+                }
+                int[] ops = block.ops;
+                int next = block.end;
+                int i = 0;
+                Stop stop = null;
+                run:
+                for (; i < ops.length; i += 2) {
+                    int op = ops[i];
+                    int imm = ops[i + 1];
+                    int rd = op >>> 8 & 0xFF;
+                    int rs1 = op >>> 16 & 0xFF;
+                    int rs2 = op >>> 24;
+                    switch (op & 0xFF) {
+                        case NOP:
+                            break;
+                        case LI:
+                            x[rd] = imm;
+                            break;
+                        case JAL:
+                            x[rd] = block.address + (i << 1) + 4;
+                            next = imm;
+                            break;
+                        case JALR: {
+                            int target = (x[rs1] + imm) & ~1;
+                            x[rd] = block.address + (i << 1) + 4;
+                            next = target;
+                            break;
+                        }
+                        case BEQ:
+                            if (x[rs1] == x[rs2]) next = imm;
+                            break;
+                        case BNE:
+                            if (x[rs1] != x[rs2]) next = imm;
+                            break;
+                        case BLT:
+                            if (x[rs1] < x[rs2]) next = imm;
+                            break;
+                        case BGE:
+                            if (x[rs1] >= x[rs2]) next = imm;
+                            break;
+                        case BLTU:
+                            if (Integer.compareUnsigned(x[rs1], x[rs2]) < 0) next = imm;
+                            break;
+                        case BGEU:
+                            if (Integer.compareUnsigned(x[rs1], x[rs2]) >= 0) next = imm;
+                            break;
+                        case LB: case LH: case LW: case LBU: case LHU: {
+                            int address = x[rs1] + imm;
+                            int index = address - base;
+                            int size = (op & 0xFF) == LW ? 4 : (op & 0xFF) == LH || (op & 0xFF) == LHU ? 2 : 1;
+                            if (Integer.compareUnsigned(index, memory.length - size) > 0) {
+                                faultAddress = address;
+                                next = block.address + (i << 1);
+                                stop = Stop.FAULT;
+                                break run;
+                            }
+                            switch (op & 0xFF) {
+                                case LB: x[rd] = memory[index]; break;
+                                case LBU: x[rd] = memory[index] & 0xFF; break;
+                                case LH: x[rd] = loadHalf(memory, index); break;
+                                case LHU: x[rd] = loadHalf(memory, index) & 0xFFFF; break;
+                                default: x[rd] = loadWord(memory, index); break;
+                            }
+                            break;
+                        }
+                        case SB: case SH: case SW: {
+                            int address = x[rs1] + imm;
+                            int index = address - base;
+                            int size = (op & 0xFF) == SW ? 4 : (op & 0xFF) == SH ? 2 : 1;
+                            if (Integer.compareUnsigned(index, memory.length - size) > 0) {
+                                faultAddress = address;
+                                next = block.address + (i << 1);
+                                stop = Stop.FAULT;
+                                break run;
+                            }
+                            boolean code;
+                            switch (op & 0xFF) {
+                                case SB: code = storeByte(index, x[rs2]); break;
+                                case SH: code = storeHalf(index, x[rs2]); break;
+                                default: code = storeWord(index, x[rs2]); break;
+                            }
+                            if (code) {
+                                // The block itself was written to, so continue with a freshly decoded one.
+                                next = block.address + (i << 1) + 4;
+                                i += 2;
+                                break run;
+                            }
+                            break;
+                        }
+                        case ADDI: x[rd] = x[rs1] + imm; break;
+                        case SLTI: x[rd] = slt(x[rs1], imm); break;
+                        case SLTIU: x[rd] = sltu(x[rs1], imm); break;
+                        case XORI: x[rd] = x[rs1] ^ imm; break;
+                        case ORI: x[rd] = x[rs1] | imm; break;
+                        case ANDI: x[rd] = x[rs1] & imm; break;
+                        case SLLI: x[rd] = x[rs1] << imm; break;
+                        case SRLI: x[rd] = x[rs1] >>> imm; break;
+                        case SRAI: x[rd] = x[rs1] >> imm; break;
+                        case ADD: x[rd] = x[rs1] + x[rs2]; break;
+                        case SUB: x[rd] = x[rs1] - x[rs2]; break;
+                        case SLL: x[rd] = x[rs1] << x[rs2]; break;
+                        case SLT: x[rd] = slt(x[rs1], x[rs2]); break;
+                        case SLTU: x[rd] = sltu(x[rs1], x[rs2]); break;
+                        case XOR: x[rd] = x[rs1] ^ x[rs2]; break;
+                        case SRL: x[rd] = x[rs1] >>> x[rs2]; break;
+                        case SRA: x[rd] = x[rs1] >> x[rs2]; break;
+                        case OR: x[rd] = x[rs1] | x[rs2]; break;
+                        case AND: x[rd] = x[rs1] & x[rs2]; break;
+                        case MUL: x[rd] = x[rs1] * x[rs2]; break;
+                        case MULH: x[rd] = mulh(x[rs1], x[rs2]); break;
+                        case MULHSU: x[rd] = mulhsu(x[rs1], x[rs2]); break;
+                        case MULHU: x[rd] = mulhu(x[rs1], x[rs2]); break;
+                        case DIV: x[rd] = div(x[rs1], x[rs2]); break;
+                        case DIVU: x[rd] = divu(x[rs1], x[rs2]); break;
+                        case REM: x[rd] = rem(x[rs1], x[rs2]); break;
+                        case REMU: x[rd] = remu(x[rs1], x[rs2]); break;
+                        case FENCE_I:
+                            // Blocks are dropped as soon as their code is written to.
+                            break;
+                        case ECALL: {
+                            // Counted here so that the handler sees the count up to and including the ECALL.
+                            instructions += (i >> 1) + 1;
+                            i = 0;
+                            this.pc = next;
+                            boolean resume = ecallHandler != null && ecallHandler.ecall(this);
+                            // The handler may have changed the PC.
+                            next = this.pc;
+                            if (!resume) stop = Stop.ECALL;
+                            break run;
+                        }
+                        case EBREAK:
+                            next = block.address + (i << 1);
+                            stop = Stop.EBREAK;
+                            break run;
+                        case ILLEGAL:
+                            next = block.address + (i << 1);
+                            stop = Stop.ILLEGAL;
+                            break run;
+                        case FETCH_FAULT:
+                            faultAddress = block.address + (i << 1);
+                            next = faultAddress;
+                            stop = Stop.FAULT;
+                            break run;
+                        default:
+                            throw new AssertionError("Bad op " + (op & 0xFF));
+                    }
+                }
+                instructions += i >> 1;
+                pc = next;
+                if (stop != null) return stop;
+            }
+        } finally {
+            this.pc = pc;
+        }
+    }
+
+    // The semantics of the instructions that take more than a JVM instruction, shared with the translated code.
+
+    static int slt(int a, int b) {
+        return a < b ? 1 : 0;
+    }
+
+    static int sltu(int a, int b) {
+        return Integer.compareUnsigned(a, b) < 0 ? 1 : 0;
+    }
+
+    static int mulh(int a, int b) {
+        return (int) ((long) a * b >> 32);
+    }
+
+    static int mulhsu(int a, int b) {
+        return (int) ((long) a * (b & 0xFFFFFFFFL) >> 32);
+    }
+
+    static int mulhu(int a, int b) {
+        return (int) ((a & 0xFFFFFFFFL) * (b & 0xFFFFFFFFL) >>> 32);
+    }
+
+    static int div(int a, int b) {
+        if (b == 0) return -1;
+        if (a == Integer.MIN_VALUE && b == -1) return a;
+        return a / b;
+    }
+
+    static int divu(int a, int b) {
+        return b == 0 ? -1 : Integer.divideUnsigned(a, b);
+    }
+
+    static int rem(int a, int b) {
+        if (b == 0) return a;
+        if (a == Integer.MIN_VALUE && b == -1) return 0;
+        return a % b;
+    }
+
+    static int remu(int a, int b) {
+        return b == 0 ? a : Integer.remainderUnsigned(a, b);
+    }
+
+    static int loadHalf(byte[] memory, int index) {
+        return (short) SHORT.get(memory, index);
+    }
+
+    static int loadWord(byte[] memory, int index) {
+        return (int) INT.get(memory, index);
+    }
+
+    // Stores to an index already checked to be in the memory, returning whether cached blocks were dropped.
+
+    boolean storeByte(int index, int value) {
+        memory[index] = (byte) value;
+        return codePages[index >>> PAGE_SHIFT] && written(index, 1);
+    }
+
+    boolean storeHalf(int index, int value) {
+        SHORT.set(memory, index, (short) value);
+        return (codePages[index >>> PAGE_SHIFT] || codePages[(index + 1) >>> PAGE_SHIFT]) && written(index, 2);
+    }
+
+    boolean storeWord(int index, int value) {
+        INT.set(memory, index, value);
+        return (codePages[index >>> PAGE_SHIFT] || codePages[(index + 3) >>> PAGE_SHIFT]) && written(index, 4);
+    }
+
+    /**
+     * Translates the region of the hot block: it and the cached blocks reachable from it by branches, direct jumps and
+     * falling through, breadth first, as long as the region stays small enough for HotSpot to compile.
+     */
+    private void translate(Block head) {
+        List<Block> region = new ArrayList<>();
+        ArrayDeque<Block> queue = new ArrayDeque<>();
+        queue.add(head);
+        int length = 0;
+        while (!queue.isEmpty() && region.size() < Translator.MAX_REGION_BLOCKS) {
+            Block block = queue.poll();
+            if (region.contains(block) || length + block.ops.length / 2 > Translator.MAX_REGION_INSTRUCTIONS) continue;
+            region.add(block);
+            length += block.ops.length / 2;
+            int last = block.ops[block.ops.length - 2] & 0xFF;
+            int target = block.ops[block.ops.length - 1];
+            Block taken = last == JAL || last >= BEQ && last <= BGEU ? cached(target) : null;
+            Block fallthrough = last != JAL && last != JALR && last < ECALL ? cached(block.end) : null;
+            if (taken != null) queue.add(taken);
+            if (fallthrough != null) queue.add(fallthrough);
+        }
+        head.translation = Translator.translate(region, base, memory.length);
+        if (head.translation != null) {
+            for (Block block : region) block.translated = true;
+        }
+    }
+
+    /** Returns the cached block at the address, or null if it is not cached or has never been executed. */
+    private Block cached(int address) {
+        int index = address - base;
+        if ((index & 3) != 0 || Integer.compareUnsigned(index, memory.length - 4) > 0) return null;
+        Block block = blocks[index >>> 2];
+        return block != null && block.executions > 0 ? block : null;
+    }
+
+    /**
+     * Returns the cached block at the address, decoding it first if needed, or null if the address cannot hold code.
+     */
+    Block block(int address) {
+        int index = address - base;
+        if ((index & 3) != 0 || Integer.compareUnsigned(index, memory.length - 4) > 0) return null;
+        Block block = blocks[index >>> 2];
+        if (block == null) {
+            block = decode(address);
+            blocks[index >>> 2] = block;
+            int last = Math.min(codePages.length - 1, (block.end - 1 - base) >>> PAGE_SHIFT);
+            for (int page = index >>> PAGE_SHIFT; page <= last; page++) codePages[page] = true;
+        }
+        return block;
+    }
+
+    /**
+     * Drops the blocks that may overlap the bytes written, returning whether there were any.
+     */
+    private boolean written(int index, int size) {
+        boolean dropped = false;
+        for (int page = index >>> PAGE_SHIFT; page <= (index + size - 1) >>> PAGE_SHIFT; page++) {
+            if (!codePages[page]) continue;
+            codePages[page] = false;
+            // A block is shorter than a page, so only blocks starting in the page or the one before reach into it.
+            int from = Math.max(0, page - 1) << PAGE_SHIFT >>> 2;
+            int to = Math.min(blocks.length, (page + 1) << PAGE_SHIFT >>> 2);
+            int pageStart = base + (page << PAGE_SHIFT);
+            for (int k = from; k < to; k++) {
+                Block block = blocks[k];
+                if (block != null && block.end - pageStart > 0) {
+                    blocks[k] = null;
+                    dropped = true;
+                    if (block.translated) dropTranslations();
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Drops every translation, since a block of some of them was written to, and lets hot blocks become hot again.
+     */
+    private void dropTranslations() {
+        for (Block block : blocks) {
+            if (block == null) continue;
+            block.translation = null;
+            block.translated = false;
+            block.executions = 0;
+        }
+    }
+
+    private Block decode(int address) {
+        int[] ops = new int[MAX_BLOCK * 2];
+        int count = 0;
+        int pc = address;
+        while (count < MAX_BLOCK) {
+            int index = pc - base;
+            if (Integer.compareUnsigned(index, memory.length - 4) > 0) {
+                ops[2 * count++] = FETCH_FAULT;
+                break;
+            }
+            boolean last = decode((int) INT.get(memory, index), pc, ops, 2 * count++);
+            pc += 4;
+            if (last) break;
+        }
+        return new Block(address, Arrays.copyOf(ops, 2 * count));
+    }
+
+    /**
+     * Decodes the instruction at pc into ops[at] and ops[at + 1], returning whether it ends a block.
+     */
+    static boolean decode(int instruction, int pc, int[] ops, int at) {
+        int opcode = instruction & 0x7F;
+        int rd = instruction >> 7 & 0x1F;
+        int funct3 = instruction >> 12 & 0x7;
+        int rs1 = instruction >> 15 & 0x1F;
+        int rs2 = instruction >> 20 & 0x1F;
+        int funct7 = instruction >>> 25;
+        int immI = instruction >> 20;
+        int op;
+        int imm = 0;
+        boolean last = false;
+        switch (opcode) {
+            case 0b0110111: // LUI
+                op = LI;
+                imm = instruction & 0xFFFFF000;
+                break;
+            case 0b0010111: // AUIPC
+                op = LI;
+                imm = pc + (instruction & 0xFFFFF000);
+                break;
+            case 0b1101111: // JAL
+                op = JAL;
+                imm = pc + RISCVDisassembler.getOffsetForJType(instruction);
+                last = true;
+                break;
+            case 0b1100111: // JALR
+                op = funct3 == 0 ? JALR : ILLEGAL;
+                imm = immI;
+                last = true;
+                break;
+            case 0b1100011: { // B-type
+                int[] branches = {BEQ, BNE, ILLEGAL, ILLEGAL, BLT, BGE, BLTU, BGEU};
+                op = branches[funct3];
+                imm = pc + RISCVDisassembler.getOffsetForBType(instruction);
+                last = true;
+                break;
+            }
+            case 0b0000011: { // loads
+                int[] loads = {LB, LH, LW, ILLEGAL, LBU, LHU, ILLEGAL, ILLEGAL};
+                op = loads[funct3];
+                imm = immI;
+                break;
+            }
+            case 0b0100011: { // stores
+                int[] stores = {SB, SH, SW, ILLEGAL, ILLEGAL, ILLEGAL, ILLEGAL, ILLEGAL};
+                op = stores[funct3];
+                imm = (instruction >> 25) << 5 | rd;
+                rd = 0;
+                break;
+            }
+            case 0b0010011: // OP-IMM
+                if (funct3 == 1) {
+                    op = funct7 == 0 ? SLLI : ILLEGAL;
+                    imm = rs2;
+                } else if (funct3 == 5) {
+                    op = funct7 == 0 ? SRLI : funct7 == 0b0100000 ? SRAI : ILLEGAL;
+                    imm = rs2;
+                } else {
+                    op = new int[]{ADDI, 0, SLTI, SLTIU, XORI, 0, ORI, ANDI}[funct3];
+                    imm = immI;
+                }
+                break;
+            case 0b0110011: // OP
+                if (funct7 == 0) {
+                    op = new int[]{ADD, SLL, SLT, SLTU, XOR, SRL, OR, AND}[funct3];
+                } else if (funct7 == 1) {
+                    op = new int[]{MUL, MULH, MULHSU, MULHU, DIV, DIVU, REM, REMU}[funct3];
+                } else if (funct7 == 0b0100000 && (funct3 == 0 || funct3 == 5)) {
+                    op = funct3 == 0 ? SUB : SRA;
+                } else {
+                    op = ILLEGAL;
+                }
+                break;
+            case 0b0001111: // FENCE, FENCE.I
+                op = funct3 == 1 ? FENCE_I : NOP;
+                last = funct3 == 1;
+                break;
+            case 0b1110011: // SYSTEM
+                op = instruction == 0x73 ? ECALL : instruction == 0x100073 ? EBREAK : ILLEGAL;
+                last = true;
+                break;
+            default:
+                op = ILLEGAL;
+                break;
+        }
+        if (op == ILLEGAL) last = true;
+        if (rd == 0) {
+            if (op >= ADDI && op <= REMU || op == LI) {
+                op = NOP;
+            } else {
+                rd = SCRATCH;
+            }
+        }
+        ops[at] = op | rd << 8 | rs1 << 16 | rs2 << 24;
+        ops[at + 1] = imm;
+        return last;
+    }
+}
@@ -0,0 +1,14 @@
+package me.alzhanov.ELF;
+
+/**
+ * An ISA extension contributing decode entries to a {@link DecodeTable}. The standard ones are the constants of
+ * {@link StandardExtension}; others are made known by name with {@link IsaRegistry#register}.
+ */
+public interface IsaExtension {
+    /**
+     * The name of the extension as written in an ISA string, such as {@code M} or {@code Zicsr}, compared ignoring case.
+     */
+    String name();
+
+    void addEntries(DecodeTable.Builder table);
+}
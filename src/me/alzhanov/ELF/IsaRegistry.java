@@ -0,0 +1,192 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.ElfFile;
+import net.fornwall.jelf.ElfSection;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ISA extensions known by name, and the choice of the enabled ones from an ISA string such as
+ * {@code rv32i2p1_m2p0_zicsr2p0}, either given by the user or found in the {@code Tag_RISCV_arch} attribute of the
+ * {@code .riscv.attributes} section of a file.
+ */
+public final class IsaRegistry {
+    /** The extensions the disassembler always decoded, used for files without an ISA string. */
+    public static final List<IsaExtension> DEFAULT = Collections.unmodifiableList(Arrays.asList(
+            StandardExtension.I, StandardExtension.M, StandardExtension.ZICSR, StandardExtension.ZIFENCEI));
+
+    private static final int TAG_FILE = 1;
+    private static final int TAG_RISCV_ARCH = 5;
+    private static final Map<String, IsaExtension> EXTENSIONS = new ConcurrentHashMap<>();
+
+    static {
+        for (StandardExtension extension : StandardExtension.values()) register(extension);
+    }
+
+    private IsaRegistry() {
+    }
+
+    /**
+     * Makes the extension known by its name, replacing any extension of the same name.
+     */
+    public static void register(IsaExtension extension) {
+        EXTENSIONS.put(extension.name().toLowerCase(Locale.ROOT), extension);
+    }
+
+    /**
+     * Returns the extension with the name, ignoring case, or null if there is none.
+     */
+    public static IsaExtension get(String name) {
+        return EXTENSIONS.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns every known extension: the standard ones in their canonical order, then the others by name.
+     */
+    public static List<IsaExtension> known() {
+        List<IsaExtension> extensions = new ArrayList<>(Arrays.asList(StandardExtension.values()));
+        List<String> others = new ArrayList<>(EXTENSIONS.keySet());
+        Collections.sort(others);
+        for (String name : others) {
+            IsaExtension extension = EXTENSIONS.get(name);
+            if (!extensions.contains(extension)) extensions.add(extension);
+        }
+        return extensions;
+    }
+
+    /**
+     * Returns the extensions named by the ISA string, such as {@code rv32imafd_zicsr_zba} or {@code rv32i2p0_m2p0}, or
+     * by a comma separated list of extension names. The base I is always included, G stands for IMAFD, Zicsr and
+     * Zifencei, and extensions implied by others (F by D, Zicsr by F) are added. A base I without a version or with
+     * version 2.0 includes Zicsr and Zifencei, which were split from it in version 2.1. C is accepted but left out, since
+     * compressed instructions are not decoded.
+     *
+     * @param strict whether unknown extensions are an error rather than ignored
+     */
+    public static List<IsaExtension> parse(String isa, boolean strict) {
+        Set<String> names = new LinkedHashSet<>();
+        names.add("i");
+        String lower = isa.trim().toLowerCase(Locale.ROOT);
+        if (lower.contains(",")) {
+            for (String name : lower.split(",")) names.add(name.trim());
+        } else {
+            if (lower.startsWith("rv32") || lower.startsWith("rv64")) lower = lower.substring(4);
+            for (String token : lower.split("_")) {
+                if (token.isEmpty()) continue;
+                char first = token.charAt(0);
+                if ((first == 'z' || first == 's' || first == 'x') && token.length() > 1) {
+                    names.add(token.replaceFirst("\\d+(p\\d+)?$", ""));
+                    continue;
+                }
+                // Single-letter extensions, each with an optional version such as 2p1.
+                int i = 0;
+                while (i < token.length()) {
+                    char letter = token.charAt(i++);
+                    int versionStart = i;
+                    while (i < token.length() && (Character.isDigit(token.charAt(i)) || token.charAt(i) == 'p')) i++;
+                    String version = token.substring(versionStart, i);
+                    if (letter == 'g') {
+                        names.addAll(Arrays.asList("m", "a", "f", "d", "zicsr", "zifencei"));
+                    } else if (letter == 'i' || letter == 'e') {
+                        if (version.isEmpty() || version.equals("2") || version.equals("2p0")) {
+                            names.add("zicsr");
+                            names.add("zifencei");
+                        }
+                    } else {
+                        names.add(String.valueOf(letter));
+                    }
+                }
+            }
+        }
+        if (names.contains("d")) names.add("f");
+        if (names.contains("f")) names.add("zicsr");
+        // Compressed parcels are not decoded, so C is accepted but contributes nothing.
+        names.remove("c");
+
+        List<IsaExtension> extensions = new ArrayList<>();
+        // The standard extensions in their canonical order, then any others in the order given.
+        for (StandardExtension standard : StandardExtension.values()) {
+            if (names.remove(standard.name().toLowerCase(Locale.ROOT))) extensions.add(get(standard.name()));
+        }
+        for (String name : names) {
+            IsaExtension extension = get(name);
+            if (extension != null) {
+                extensions.add(extension);
+            } else if (strict) {
+                throw new IllegalArgumentException("Unknown ISA extension: " + name);
+            }
+        }
+        return extensions;
+    }
+
+    /**
+     * Returns the extensions named by the {@code Tag_RISCV_arch} attribute of the file, or {@link #DEFAULT} if it has
+     * none. Unknown extensions are ignored.
+     */
+    public static List<IsaExtension> fromAttributes(ElfFile file) {
+        ElfSection attributes = file.firstSectionByName(".riscv.attributes");
+        String arch = attributes == null ? null : readArchAttribute(attributes.contents());
+        return arch == null ? DEFAULT : parse(arch, false);
+    }
+
+    /**
+     * Reads {@code Tag_RISCV_arch} from the contents of a {@code .riscv.attributes} section: a format version 'A'
+     * followed by vendor subsections, of which the "riscv" one holds a file-level subsection with attributes tagged by
+     * ULEB128 numbers, taking a NUL-terminated string for odd tags and a ULEB128 number for even ones.
+     */
+    static String readArchAttribute(ByteBuffer contents) {
+        if (!contents.hasRemaining() || contents.get(0) != 'A') return null;
+        int position = 1;
+        while (position + 4 <= contents.limit()) {
+            int subsectionEnd = position + contents.getInt(position);
+            if (subsectionEnd <= position || subsectionEnd > contents.limit()) return null;
+            int[] cursor = {position + 4};
+            String vendor = readString(contents, cursor, subsectionEnd);
+            if ("riscv".equals(vendor)) {
+                while (cursor[0] + 5 <= subsectionEnd) {
+                    int tagStart = cursor[0];
+                    int tag = (int) readUleb(contents, cursor, subsectionEnd);
+                    int end = tagStart + contents.getInt(cursor[0]);
+                    cursor[0] += 4;
+                    if (end <= tagStart || end > subsectionEnd) return null;
+                    if (tag == TAG_FILE) {
+                        while (cursor[0] < end) {
+                            long attribute = readUleb(contents, cursor, end);
+                            if (attribute == TAG_RISCV_ARCH) return readString(contents, cursor, end);
+                            if ((attribute & 1) != 0) {
+                                readString(contents, cursor, end);
+                            } else {
+                                readUleb(contents, cursor, end);
+                            }
+                        }
+                    }
+                    cursor[0] = end;
+                }
+            }
+            position = subsectionEnd;
+        }
+        return null;
+    }
+
+    private static String readString(ByteBuffer contents, int[] cursor, int end) {
+        StringBuilder s = new StringBuilder();
+        while (cursor[0] < end) {
+            byte b = contents.get(cursor[0]++);
+            if (b == 0) return s.toString();
+            s.append((char) (b & 0xFF));
+        }
+        return s.toString();
+    }
+
+    private static long readUleb(ByteBuffer contents, int[] cursor, int end) {
+        long value = 0;
+        for (int shift = 0; cursor[0] < end; shift += 7) {
+            byte b = contents.get(cursor[0]++);
+            if (shift < 64) value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return value;
+    }
+}
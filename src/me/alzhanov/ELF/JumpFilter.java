@@ -0,0 +1,57 @@
+package me.alzhanov.ELF;
+
+/**
+ * The first pass of the label scan of {@link RISCVDisassembler#findUnmarkedLocations}, picking the JAL and B-type
+ * instructions out of a block of words and decoding their offsets.
+ * <p>
+ * {@link #INSTANCE} is {@code VectorJumpFilter} when that class is on the class path and the
+ * {@code jdk.incubator.vector} module is in the boot layer, as when running with
+ * {@code java --add-modules jdk.incubator.vector}, and the scalar {@link #SCALAR} otherwise. {@code VectorJumpFilter}
+ * is only loaded by name and lives in its own source root, {@code src-vector}, which the default build leaves out. It
+ * is compiled against the classes of {@code src}:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp out -d out src-vector/me/alzhanov/ELF/VectorJumpFilter.java
+ * </pre>
+ */
+interface JumpFilter {
+    JumpFilter SCALAR = (words, length, positions, offsets) -> filter(words, 0, length, positions, offsets, 0);
+
+    JumpFilter INSTANCE = select();
+
+    /**
+     * Stores the positions among the first length words of the JAL and B-type instructions in positions, in order,
+     * and their offsets at the same index in offsets. Returns their number.
+     */
+    int filter(int[] words, int length, int[] positions, int[] offsets);
+
+    /**
+     * The scalar filter of the words [from, to), storing from index found on. Returns the new number found.
+     */
+    static int filter(int[] words, int from, int to, int[] positions, int[] offsets, int found) {
+        int first = found;
+        for (int i = from; i < to; i++) {
+            int opcode = words[i] & ((1 << 7) - 1);
+            // funct3 010 and 011 are no branches and are printed as unknown
+            boolean branch = opcode == 0b1100011 & (words[i] & 0x6000) != 0x2000;
+            positions[found] = i;
+            found += (opcode == 0b1101111 | branch) ? 1 : 0;
+        }
+        for (int k = first; k < found; k++) {
+            int instruction = words[positions[k]];
+            // Bit 3 of the opcode tells JAL from B-type.
+            offsets[k] = (instruction & 0b1000) != 0
+                    ? RISCVDisassembler.getOffsetForJType(instruction) : RISCVDisassembler.getOffsetForBType(instruction);
+        }
+        return found;
+    }
+
+    private static JumpFilter select() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return SCALAR;
+        try {
+            return (JumpFilter) Class.forName("me.alzhanov.ELF.VectorJumpFilter").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Built without src-vector.
+            return SCALAR;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package me.alzhanov.ELF;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A channel compressing what is written to it into a multi-member gzip stream, the way pigz does: the input is cut
+ * into fixed-size blocks, each block is compressed into a gzip member of its own on a thread pool, and the members are
+ * written out in order. Compression overlaps with whatever produces the output, and the result is readable by gzip and
+ * {@link GZIPInputStream}.
+ * <p>
+ * Optionally a block index is written next to the archive, one line per member holding its offset in the archive and
+ * the offset of its first byte in the uncompressed stream, so that {@link #openAt} can start reading anywhere without
+ * decompressing the members before.
+ */
+public final class ParallelGzipChannel implements GatheringByteChannel {
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final class Member {
+        final byte[] data;
+        final int length;
+        final int uncompressedLength;
+
+        Member(byte[] data, int length, int uncompressedLength) {
+            this.data = data;
+            this.length = length;
+            this.uncompressedLength = uncompressedLength;
+        }
+    }
+
+    private final WritableByteChannel out;
+    private final Path indexFile;
+    private final int blockSize;
+    private final int level;
+    private final ExecutorService pool;
+    private final int maxPending;
+    private final ArrayDeque<Future<Member>> pending = new ArrayDeque<>();
+    /** Offsets of the written members, in the archive and in the uncompressed stream. */
+    private final List<long[]> index = new ArrayList<>();
+    private byte[] block;
+    private int blockLength;
+    private long compressedOffset;
+    private long uncompressedOffset;
+    private boolean open = true;
+
+    /**
+     * @param indexFile where to write the block index when the channel is closed, or null for none
+     */
+    public ParallelGzipChannel(WritableByteChannel out, Path indexFile, int blockSize, int level, int threads) {
+        if (blockSize <= 0 || threads <= 0)
+            throw new IllegalArgumentException("Invalid block size " + blockSize + " or thread count " + threads);
+        this.out = out;
+        this.indexFile = indexFile;
+        this.blockSize = blockSize;
+        this.level = level;
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Enough blocks in flight to keep every thread busy while the oldest one is waited for.
+        this.maxPending = threads * 2;
+        this.block = new byte[blockSize];
+    }
+
+    public ParallelGzipChannel(WritableByteChannel out, Path indexFile) {
+        this(out, indexFile, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) throw new IOException("Channel is closed");
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), blockSize - blockLength);
+            src.get(block, blockLength, n);
+            blockLength += n;
+            if (blockLength == blockSize) submitBlock();
+        }
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) written += write(srcs[i]);
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        pending.add(pool.submit(() -> compress(data, length)));
+        block = new byte[blockSize];
+        blockLength = 0;
+        // Write out what is already done, and wait for the oldest block when too many are in flight.
+        while (!pending.isEmpty() && (pending.size() > maxPending || pending.peek().isDone())) {
+            writeMember(pending.poll());
+        }
+    }
+
+    private void writeMember(Future<Member> future) throws IOException {
+        Member member;
+        try {
+            member = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress a block", e.getCause());
+        }
+        index.add(new long[]{compressedOffset, uncompressedOffset});
+        ByteBuffer buffer = ByteBuffer.wrap(member.data, 0, member.length);
+        while (buffer.hasRemaining()) out.write(buffer);
+        compressedOffset += member.length;
+        uncompressedOffset += member.uncompressedLength;
+    }
+
+    private Member compress(byte[] data, int length) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            // Stored blocks bound the size of incompressible input.
+            byte[] member = new byte[GZIP_HEADER.length + length + (length >> 12) + 64 + 8];
+            System.arraycopy(GZIP_HEADER, 0, member, 0, GZIP_HEADER.length);
+            int size = GZIP_HEADER.length;
+            while (!deflater.finished()) {
+                if (size == member.length - 8) member = Arrays.copyOf(member, member.length * 2);
+                size += deflater.deflate(member, size, member.length - 8 - size);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            putIntLE(member, size, (int) crc.getValue());
+            putIntLE(member, size + 4, length);
+            return new Member(member, size + 8, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void putIntLE(byte[] array, int offset, int value) {
+        array[offset] = (byte) value;
+        array[offset + 1] = (byte) (value >>> 8);
+        array[offset + 2] = (byte) (value >>> 16);
+        array[offset + 3] = (byte) (value >>> 24);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        try {
+            // An empty input still needs one member to be a valid gzip file.
+            if (blockLength > 0 || (pending.isEmpty() && index.isEmpty())) submitBlock();
+            while (!pending.isEmpty()) writeMember(pending.poll());
+            if (indexFile != null) {
+                try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(indexFile, StandardCharsets.US_ASCII))) {
+                    for (long[] entry : index) writer.printf("%d %d%n", entry[0], entry[1]);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Opens an archive written with a block index and positions it at the given offset of the uncompressed stream,
+     * decompressing only from the member containing that offset.
+     */
+    public static InputStream openAt(Path archive, Path indexFile, long offset) throws IOException {
+        long memberOffset = 0;
+        long memberStart = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                long uncompressed = Long.parseLong(line.substring(space + 1));
+                if (uncompressed > offset) break;
+                memberOffset = Long.parseLong(line.substring(0, space));
+                memberStart = uncompressed;
+            }
+        }
+        FileChannel channel = FileChannel.open(archive);
+        InputStream in;
+        try {
+            channel.position(memberOffset);
+            in = new GZIPInputStream(Channels.newInputStream(channel), 1 << 16);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        long toSkip = offset - memberStart;
+        while (toSkip > 0) {
+            long skipped = in.skip(toSkip);
+            if (skipped <= 0) break;
+            toSkip -= skipped;
+        }
+        return in;
+    }
+}
@@ -2,16 +2,48 @@ package me.alzhanov.ELF;
 
 import net.fornwall.jelf.*;
 
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongPredicate;
 
 public class RISCVDisassembler {
+    static final int R_RISCV_BRANCH = 16;
+    static final int R_RISCV_JAL = 17;
+    static final int R_RISCV_CALL = 18;
+    static final int R_RISCV_CALL_PLT = 19;
+    static final int R_RISCV_HI20 = 26;
+    static final int R_RISCV_LO12_I = 27;
+    static final int R_RISCV_LO12_S = 28;
+
+    /** Words copied out of a section at a time when looking for labels. */
+    private static final int LABEL_SCAN_BLOCK = 4096;
+
     final ElfFile file;
+    final DecodeTable decodeTable;
 
+    /**
+     * Creates a disassembler decoding the extensions named in the .riscv.attributes section of the file, or the
+     * {@link IsaRegistry#DEFAULT} ones if it has none.
+     */
     public RISCVDisassembler(ElfFile file) {
+        this(file, null);
+    }
+
+    /**
+     * Creates a disassembler decoding the extensions, or the ones of the file if null.
+     */
+    public RISCVDisassembler(ElfFile file, Collection<? extends IsaExtension> extensions) {
         if (file.objectSize != ElfFile.CLASS_32) {
             throw new InputMismatchException("That elf is not 32 bit.");
         }
@@ -19,6 +51,11 @@ public class RISCVDisassembler {
             throw new InputMismatchException("That elf is not for RISC-V.");
         }
         this.file = file;
+        this.decodeTable = DecodeTable.of(extensions != null ? extensions : IsaRegistry.fromAttributes(file));
+    }
+
+    public List<IsaExtension> getExtensions() {
+        return decodeTable.extensions();
     }
 
     public void dumpAll(OutputStreamWriter output) {
@@ -28,7 +65,7 @@ public class RISCVDisassembler {
         writer.flush();
     }
 
-    String getRegisterString(int reg) {
+    static String getRegisterString(int reg) {
         if (reg == 0)
             return "zero";
         else if (reg == 1)
@@ -55,7 +92,22 @@ public class RISCVDisassembler {
             throw new AssertionError("RISC-V doesn't have register " + reg);
     }
 
-    private String getSymbolForAddr(long loc, boolean isUnmarked) {
+    static String getFloatRegisterString(int reg) {
+        if (reg <= 7)
+            return "ft" + reg;
+        else if (reg <= 9)
+            return "fs" + (reg - 8);
+        else if (reg <= 17)
+            return "fa" + (reg - 10);
+        else if (reg <= 27)
+            return "fs" + (reg - 18 + 2);
+        else if (reg <= 31)
+            return "ft" + (reg - 28 + 8);
+        else
+            throw new AssertionError("RISC-V doesn't have register f" + reg);
+    }
+
+    String getSymbolForAddr(long loc, boolean isUnmarked) {
         ElfSymbol symb = file.getELFSymbol(loc);
         String locS = String.format("0x%08X", loc);
         if (symb != null && symb.st_value == loc && symb.section_type == ElfSymbol.STT_FUNC) {
@@ -67,30 +119,139 @@ public class RISCVDisassembler {
     }
 
     Set<Long> findUnmarkedLocations(ElfSection textSection) {
-        long curOffset = 0;
-        file.parser.seek(textSection.header.section_offset);
+        return findUnmarkedLocations(textSection, 0, textSection.header.size);
+    }
+
+    /**
+     * Finds the jump and branch targets needing a LOC_ label, looking only at the instructions in [fromOffset, toOffset)
+     * of the section.
+     * <p>
+     * The words are bulk-copied in blocks and filtered in two passes: the first, a {@link JumpFilter}, picks out the
+     * JAL and B-type instructions and decodes their offsets, and only those are then resolved to targets.
+     */
+    Set<Long> findUnmarkedLocations(ElfSection textSection, long fromOffset, long toOffset) {
+        IntBuffer code = textSection.contentsAsInts();
+        List<ElfRelocationSection> relocations = findRelocations(textSection);
         Set<Long> symbs = new HashSet<>();
-        while (curOffset < textSection.header.size) {
-            long virtualAddress = curOffset + textSection.header.address;
-            int instruction = file.parser.readInt();
-            int opcode = instruction & ((1 << 7) - 1);
-            if (opcode == 0b1101111) { // JAL
-                int offset = getOffsetForJType(instruction);
-                ElfSymbol symb = file.getELFSymbol(virtualAddress + offset);
-                if (symb == null || symb.st_value != virtualAddress + offset || symb.section_type == ElfSymbol.STT_FUNC)
-                    symbs.add(virtualAddress + offset);
-            } else if (opcode == 0b1100011) { // B-type
-                int offset = getOffsetForBType(instruction);
-                ElfSymbol symb = file.getELFSymbol(virtualAddress + offset);
-                if (symb == null || symb.st_value != virtualAddress + offset || symb.section_type == ElfSymbol.STT_FUNC)
-                    symbs.add(virtualAddress + offset);
+        int firstWord = (int) (fromOffset >>> 2);
+        // A trailing partial word is no jump or branch.
+        int count = toOffset > fromOffset ? (int) Math.min((toOffset - fromOffset + 3) >>> 2, code.limit() - firstWord) : 0;
+        int[] words = new int[Math.min(count, LABEL_SCAN_BLOCK)];
+        int[] positions = new int[words.length];
+        int[] offsets = new int[words.length];
+        for (int block = 0; block < count; block += words.length) {
+            int length = Math.min(words.length, count - block);
+            code.get(firstWord + block, words, 0, length);
+            int found = JumpFilter.INSTANCE.filter(words, length, positions, offsets);
+            for (int k = 0; k < found; k++) {
+                long curOffset = fromOffset + ((long) (block + positions[k]) << 2);
+                long jumpTo = getJumpTarget(textSection, relocations, curOffset, offsets[k]);
+                ElfSymbol symb = file.getELFSymbol(jumpTo);
+                if (symb == null || symb.st_value != jumpTo || symb.section_type == ElfSymbol.STT_FUNC)
+                    symbs.add(jumpTo);
             }
-            curOffset += 4;
         }
         return symbs;
     }
 
-    private int getOffsetForBType(int instruction) {
+    /**
+     * The {@link ElfSectionHeader#SHT_RELA} and {@link ElfSectionHeader#SHT_REL} sections applying to the section.
+     */
+    List<ElfRelocationSection> findRelocations(ElfSection section) {
+        List<ElfRelocationSection> relocations = new ArrayList<>();
+        for (int type : new int[]{ElfSectionHeader.SHT_RELA, ElfSectionHeader.SHT_REL}) {
+            for (ElfSection relocationSection : file.sectionsOfType(type)) {
+                if (file.getSection(relocationSection.header.info) == section) {
+                    relocations.add((ElfRelocationSection) relocationSection);
+                }
+            }
+        }
+        return relocations;
+    }
+
+    /**
+     * Finds the relocation entry applying to the instruction at the offset in the section. Returns the relocation
+     * section holding it with the entry index in {@code entry[0]}, or null if there is none.
+     */
+    private ElfRelocationSection findRelocation(ElfSection section, List<ElfRelocationSection> relocations, long curOffset, int[] entry) {
+        // r_offset is section relative in relocatable files and a virtual address otherwise
+        long key = file.e_type == ElfFile.ET_REL ? curOffset : section.header.address + curOffset;
+        for (ElfRelocationSection relocationSection : relocations) {
+            int found = relocationSection.find(key);
+            if (found != -1) {
+                entry[0] = found;
+                return relocationSection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the address jumped to by the JAL, B-type instruction or AUIPC+JALR pair at the offset in the section,
+     * given the PC-relative offset encoded in it. If a {@link #R_RISCV_JAL}, {@link #R_RISCV_BRANCH} or
+     * {@link #R_RISCV_CALL} relocation against a symbol of the same section applies to the instruction, the target is
+     * the relocated one rather than the one encoded in the (usually zero) immediate.
+     */
+    long getJumpTarget(ElfSection section, List<ElfRelocationSection> relocations, long curOffset, int offset) {
+        long virtualAddress = section.header.address + curOffset;
+        if (relocations.isEmpty()) return virtualAddress + offset;
+        int[] entry = new int[1];
+        ElfRelocationSection relocationSection = findRelocation(section, relocations, curOffset, entry);
+        if (relocationSection == null) return virtualAddress + offset;
+        int type = relocationSection.getType(entry[0]);
+        if (type != R_RISCV_JAL && type != R_RISCV_BRANCH && type != R_RISCV_CALL && type != R_RISCV_CALL_PLT)
+            return virtualAddress + offset;
+        ElfSymbol symbol = getRelocationSymbol(relocationSection, entry[0]);
+        int shndx = symbol.st_shndx & 0xFFFF;
+        if (shndx == 0 || shndx >= file.num_sh || file.getSection(shndx) != section) return virtualAddress + offset;
+        long symbolAddress = file.e_type == ElfFile.ET_REL ? section.header.address + symbol.st_value : symbol.st_value;
+        return symbolAddress + relocationSection.getAddend(entry[0]);
+    }
+
+    private ElfSymbol getRelocationSymbol(ElfRelocationSection relocationSection, int entry) {
+        ElfSymbolTableSection symbolTable = (ElfSymbolTableSection) file.getSection(relocationSection.header.link);
+        return symbolTable.symbols[relocationSection.getSymbolIndex(entry)];
+    }
+
+    /**
+     * Returns the number of lines {@link #disassembleInstruction} prints for the instruction at the offset in the
+     * section, which is two if a relocation is annotated under it and one otherwise.
+     */
+    int getLineCount(ElfSection section, List<ElfRelocationSection> relocations, long curOffset) {
+        if (relocations.isEmpty()) return 1;
+        int[] entry = new int[1];
+        ElfRelocationSection relocationSection = findRelocation(section, relocations, curOffset, entry);
+        if (relocationSection == null || relocationTypeToString(relocationSection.getType(entry[0])) == null) return 1;
+        return 2;
+    }
+
+    /**
+     * Returns the line annotating the instruction at the offset in the section with the relocation applying to it, or
+     * null if there is no such relocation of a type the disassembler resolves.
+     */
+    private String getRelocationAnnotation(ElfSection section, List<ElfRelocationSection> relocations, long curOffset) {
+        int[] entry = new int[1];
+        ElfRelocationSection relocationSection = findRelocation(section, relocations, curOffset, entry);
+        if (relocationSection == null) return null;
+        String type = relocationTypeToString(relocationSection.getType(entry[0]));
+        if (type == null) return null;
+        ElfSymbol symbol = getRelocationSymbol(relocationSection, entry[0]);
+        String name;
+        if (symbol.getType() == ElfSymbol.STT_SECTION) {
+            name = file.getSection(symbol.st_shndx & 0xFFFF).header.getName();
+        } else {
+            name = symbol.st_name == 0 ? "" : symbol.getName();
+        }
+        long addend = relocationSection.getAddend(entry[0]);
+        if (addend > 0) {
+            name += String.format("+0x%X", addend);
+        } else if (addend < 0) {
+            name += String.format("-0x%X", -addend);
+        }
+        return String.format("\t\t\t%08X: %s\t%s", relocationSection.getOffset(entry[0]), type, name);
+    }
+
+    static int getOffsetForBType(int instruction) {
         // fucking hell...
         // 12 10 9 8 7 6 5 . . . . . . . . . . . . . 4 3 2 1 11 . . . . . . .
 
@@ -98,12 +259,12 @@ public class RISCVDisassembler {
         int offset = (((instruction >>> 8) & ((1 << 4) - 1)) << 1) |
                 (((instruction >>> 25) & ((1 << 6) - 1)) << 5) |
                 (((instruction >>> 7) & 1) << 11) |
-                (((instruction >>> 31) & 1) << 12); // probably has a bug - did not test
+                (((instruction >>> 31) & 1) << 12);
         offset = signExtend(offset, 12);
         return offset;
     }
 
-    private int getOffsetForJType(int instruction) {
+    static int getOffsetForJType(int instruction) {
         // 20 | 10:1 | 11 | 19:12 <- боже мой
         // 20 10  9  8  7  6  5  4  3  2  1 11 19 18 17 16 15 14 13 12
         // 20 19 18 17 16 15 14 13 12 11 10  9  8  7  6  5  4  3  2  1  0
@@ -122,121 +283,281 @@ public class RISCVDisassembler {
         return offset;
     }
 
-    public void doDisassemble(PrintWriter out) {
-        file.getDynamicSymbolTableSection();
-        file.getSymbolTableSection();
+    /**
+     * Materializes every section, so that tasks running concurrently only read already parsed state of the file.
+     */
+    void materializeSections() {
+        for (int i = 0; i < file.num_sh; i++) file.getSection(i);
+    }
+
+    ElfSection getTextSection() {
         ElfSection textSection = file.firstSectionByName(".text");
         if (textSection == null)
             throw new InputMismatchException("No .text found");
-        long curOffset = 0;
-        Set<Long> unmarked = findUnmarkedLocations(textSection);
-        file.parser.seek(textSection.header.section_offset);
-        while (curOffset < textSection.header.size) {
-            long virtualAddress = curOffset + textSection.header.address;
-            out.print(String.format("%08X: ", virtualAddress));
-            int instruction = file.parser.readInt();
-            ElfSymbol symb = file.getELFSymbol(virtualAddress);
-            if (symb != null && symb.st_value == virtualAddress && symb.section_type == ElfSymbol.STT_FUNC) {
-                out.printf("<%s>\t", symb.getName());
-            } else if (unmarked.contains(virtualAddress)) {
-                out.printf("<LOC_0x%08X>\t", virtualAddress);
-            } else {
-                out.print("\t");
+        return textSection;
+    }
+
+    /**
+     * Builds the control-flow graphs of the functions in .text, each function as a separate task on the pool.
+     */
+    public ControlFlowGraph buildControlFlowGraph(ForkJoinPool pool) {
+        return ControlFlowGraph.build(this, getTextSection(), pool);
+    }
+
+    public ControlFlowGraph buildControlFlowGraph() {
+        return buildControlFlowGraph(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Builds the cross-reference index of all executable sections, scanning chunks of them in parallel on the pool.
+     */
+    public CrossReferenceIndex buildCrossReferences(ForkJoinPool pool) {
+        return CrossReferenceIndex.build(this, pool);
+    }
+
+    public CrossReferenceIndex buildCrossReferences() {
+        return buildCrossReferences(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Collects instruction statistics of all executable sections, scanning chunks of them in parallel on the pool.
+     */
+    public InstructionStatistics collectStatistics(ForkJoinPool pool) {
+        return InstructionStatistics.build(this, pool);
+    }
+
+    public InstructionStatistics collectStatistics() {
+        return collectStatistics(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prints the instructions of all executable sections matching any of the patterns. Sections are scanned as raw
+     * words and only the matching instructions are decoded, without LOC_ labels.
+     */
+    public void findInstructions(PrintWriter out, List<InstructionPattern> patterns, ForkJoinPool pool) {
+        file.getDynamicSymbolTableSection();
+        file.getSymbolTableSection();
+        for (ElfSection section : file.sectionsOfType(ElfSectionHeader.SHT_PROGBITS)) {
+            if ((section.header.flags & ElfSectionHeader.FLAG_EXEC_INSTR) == 0) continue;
+            long[] hits = InstructionPattern.scan(section, patterns, decodeTable, pool);
+            if (hits.length == 0) continue;
+            IntBuffer code = section.contentsAsInts();
+            List<ElfRelocationSection> relocations = findRelocations(section);
+            for (long curOffset : hits) {
+                disassembleInstruction(out, section, code.get((int) (curOffset >>> 2)), curOffset, address -> false, relocations);
             }
-            int opcode = instruction & ((1 << 7) - 1);
-            int rd = instruction >> 7 & ((1 << 5) - 1);
-            int funct3 = instruction >> 12 & ((1 << 3) - 1);
-            int rs1 = instruction >> 15 & ((1 << 5) - 1);
-            int rs2 = instruction >> 20 & ((1 << 5) - 1);
-            int imm110 = instruction >> 20 & ((1 << 12) - 1);
-            int funct7 = instruction >> 25;
-            if (opcode == 0b0110111) { // LUI
-                out.printf("%6s %s, %s%n", "lui", getRegisterString(rd), Integer.toUnsignedString((instruction >>> 12) << 12));
-            } else if (opcode == 0b0010111) { // AUIPC
-                out.printf("%6s %s, %s%n", "auipc", getRegisterString(rd), Integer.toUnsignedString((instruction >>> 12) << 12));
-            } else if (opcode == 0b1101111) { // JAL
-                int offset = getOffsetForJType(instruction);
-                long jumpTo = virtualAddress + offset;
-                out.printf("%6s %s, %d\t#%s%n", "jal", getRegisterString(rd), offset, getSymbolForAddr(jumpTo, unmarked.contains(jumpTo)));
-            } else if (opcode == 0b1100111 && funct3 == 0b000) { // jalr
-                imm110 = signExtend(imm110, 11);
-                out.printf("%6s %s, %s, %d%n", "jalr", getRegisterString(rd), getRegisterString(rs1), imm110);
-            } else if (opcode == 0b1100011) { // B-type
-                int offset = getOffsetForBType(instruction);
-                String instr = new String[]{"beq", "bne", "??", "??", "blt", "bge", "bltu", "bgeu"}[funct3];
-                long jumpTo = virtualAddress + offset;
-                out.printf("%6s %s, %s, %d\t#%s %n", instr, getRegisterString(rs1), getRegisterString(rs2), offset, getSymbolForAddr(jumpTo, unmarked.contains(jumpTo)));
-            } else if (opcode == 0b0000011) { // I-type - LB, LH, LW, LBU, LHU
-                String instr = new String[]{"lb", "lh", "lw", "??", "lbu", "lhu", "??", "??"}[funct3];
-                out.printf("%6s %s, %d(%s)%n", instr, getRegisterString(rd), signExtend(imm110, 11) , getRegisterString(rs1));
-            } else if (opcode == 0b0100011) { // S-type SB, SH, SW
-                String instr = new String[]{"sb", "sh", "sw", "??", "??", "??", "??", "??"}[funct3];
-                int imm = rd | ((imm110 >>> 5) << 5);
-                out.printf("%6s %s, %d(%s)%n", instr, getRegisterString(rs2), signExtend(imm, 11), getRegisterString(rs1));
-            } else if (opcode == 0b0010011) {
-                if (funct3 == 0b001) { // SLLI
-                    out.printf("%6s %s, %s, %d%n", "slli", getRegisterString(rd), getRegisterString(rs1), imm110);
-                } else if (funct3 == 0b101) {
-                    if (funct7 == 0b0100000) {// SRAI
-                        out.printf("%6s %s, %s, %d%n", "srai", getRegisterString(rd), getRegisterString(rs1), imm110 & ((1 << 5) - 1));
-                    } else { // SRLI
-                        out.printf("%6s %s, %s, %d%n", "srli", getRegisterString(rd), getRegisterString(rs1), imm110);
-                    }
-                } else { // I-type - ADDI, SLTI, SLTIU, XORI, ORI, ANDI
-                    String instr = new String[]{"addi", "??", "slti", "sltiu", "xori", "??", "ori", "andi"}[funct3];
-                    if (instr.equals("addi") || instr.equals("slti")) { // sign-extend
-                        imm110 = signExtend(imm110, 11);
-                    }
-                    out.printf("%6s %s, %s, %d%n", instr, getRegisterString(rd), getRegisterString(rs1), imm110);
-                }
-            } else if (opcode == 0b110011) { // R-type
-                if (funct7 == 0b0100000) {// SUB, SRA
-                    String instr = new String[]{"sub", "??", "??", "??", "??", "sra", "??", "??"}[funct3];
-                    out.printf("%6s %s, %s, %s%n", instr, getRegisterString(rd), getRegisterString(rs1), getRegisterString(rs2));
-                } else if (funct7 == 0) {
-                    String instr = new String[]{"add", "sll", "slt", "sltu", "xor", "srl", "or", "and"}[funct3];
-                    out.printf("%6s %s, %s, %s%n", instr, getRegisterString(rd), getRegisterString(rs1), getRegisterString(rs2));
-                } else if (funct7 == 1) {
-                    String instr = new String[]{"mul", "mulh", "mulhsu", "mulhu", "div", "divu", "rem", "remu"}[funct3];
-                    out.printf("%6s %s, %s, %s%n", instr, getRegisterString(rd), getRegisterString(rs1), getRegisterString(rs2));
-                }
-            } else if (opcode == 0b0001111) {
-                if (funct3 == 1) { // FENCE.I
-                    out.printf("%6s%n", "fence.i");
-                } else { // FENCE
-                    out.printf("%6s %d, %d%n", "fence", imm110 >>> 4 << 4, imm110 & ((1 << 4) - 1));
-                }
-            } else if (opcode == 0b1110011) {
-                if (funct3 == 0) {
-                    if (imm110 == 0) { // ECALL
-                        out.printf("%6s%n", "ecall");
-                    } else if (imm110 == 1) { // EBREAK
-                        out.printf("%6s%n", "ebreak");
-                    } else {
-                        out.printf("????%n");
-                    }
-                } else {
-                    String instr = new String[]{"", "csrrw", "csrrs", "csrrc", "??", "csrrwi", "csrrsi", "csrrci"}[funct3];
-                    out.printf("%6s %s, %s, %s%n", instr, getRegisterString(rd), imm110, getRegisterString(rs1));
-                }
+        }
+    }
+
+    public void findInstructions(PrintWriter out, List<InstructionPattern> patterns) {
+        findInstructions(out, patterns, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the executable section containing the address. In relocatable files, where every section starts at 0,
+     * this is .text.
+     */
+    ElfSection getCodeSection(long address) {
+        ElfSection textSection = file.firstSectionByName(".text");
+        if (textSection != null && (file.e_type == ElfFile.ET_REL || containsAddress(textSection, address)))
+            return textSection;
+        for (ElfSection section : file.sectionsOfType(ElfSectionHeader.SHT_PROGBITS)) {
+            if ((section.header.flags & ElfSectionHeader.FLAG_EXEC_INSTR) != 0 && containsAddress(section, address))
+                return section;
+        }
+        throw new InputMismatchException(String.format("No code section contains 0x%08X", address));
+    }
+
+    private static boolean containsAddress(ElfSection section, long address) {
+        return section.header.address <= address && address < section.header.address + section.header.size;
+    }
+
+    /**
+     * Creates a pager over the disassembly of .text with a checkpoint every checkpointInterval instructions.
+     */
+    public DisassemblyPager pager(int checkpointInterval) {
+        return new DisassemblyPager(this, getTextSection(), checkpointInterval);
+    }
+
+    public DisassemblyPager pager() {
+        return pager(DisassemblyPager.DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    public void doDisassemble(PrintWriter out) {
+        ElfSection textSection = getTextSection();
+        disassembleSection(out, textSection, 0, textSection.header.size);
+    }
+
+    /**
+     * Returns an empty histogram of the samples in .text, to be filled by {@link SampleHistogram#read}.
+     */
+    public SampleHistogram textHistogram() {
+        ElfSection textSection = getTextSection();
+        return new SampleHistogram(textSection.header.address, textSection.header.address + textSection.header.size,
+                file.objectSize == ElfFile.CLASS_32);
+    }
+
+    /**
+     * Prints {@link #doDisassemble} with the samples of each instruction and their percentage of all samples in front
+     * of its line. If threshold is above zero, only the functions with at least that percentage of the samples are
+     * printed instead, the hottest first, each under a line with its own total.
+     */
+    public void annotate(PrintWriter out, SampleHistogram samples, double threshold) {
+        ElfSection textSection = getTextSection();
+        long size = textSection.header.size;
+        long base = textSection.header.address;
+        Set<Long> unmarked = findUnmarkedLocations(textSection, 0, size);
+        List<ElfRelocationSection> relocations = findRelocations(textSection);
+        if (threshold <= 0) {
+            annotateSection(out, textSection, unmarked, relocations, samples, 0, size);
+            return;
+        }
+        List<long[]> hot = new ArrayList<>();
+        List<ElfSymbol> hotSymbols = new ArrayList<>();
+        for (Map.Entry<Long, ElfSymbol> function : ControlFlowGraph.findFunctions(file, textSection).entrySet()) {
+            long start = function.getKey();
+            long end = Math.min(start + function.getValue().st_size, base + size);
+            long count = samples.sum(start, end);
+            if (samples.percent(count) < threshold) continue;
+            hot.add(new long[]{start, end, count, hotSymbols.size()});
+            hotSymbols.add(function.getValue());
+        }
+        hot.sort((a, b) -> Long.compare(b[2], a[2]));
+        for (long[] function : hot) {
+            out.printf("%n<%s>: %d samples, %.2f%%%n", hotSymbols.get((int) function[3]).getName(), function[2], samples.percent(function[2]));
+            annotateSection(out, textSection, unmarked, relocations, samples, function[0] - base, function[1] - base);
+        }
+    }
+
+    /**
+     * Disassembles [fromOffset, toOffset) of the section as {@link #disassembleSection} does, with labels of the whole
+     * section, prefixing each line with its samples.
+     */
+    private void annotateSection(PrintWriter out, ElfSection textSection, Set<Long> unmarked, List<ElfRelocationSection> relocations,
+                                 SampleHistogram samples, long fromOffset, long toOffset) {
+        IntBuffer code = textSection.contentsAsInts();
+        for (long curOffset = fromOffset & ~3L; curOffset < toOffset; curOffset += 4) {
+            long count = samples.count(textSection.header.address + curOffset);
+            if (count == 0) {
+                out.print("                   ");
             } else {
-                out.printf("????%n");
+                out.printf("%10d %6.2f%% ", count, samples.percent(count));
             }
+            disassembleWord(out, textSection, code, curOffset, unmarked::contains, relocations);
+        }
+    }
+
+    /**
+     * Prints the same as {@link #doDisassemble}, with reading, formatting and writing running as pipelined stages on
+     * separate threads, formatting on the given number of threads.
+     */
+    public void disassemblePipelined(Writer out, int formatters) throws IOException {
+        new DisassemblyPipeline(this, getTextSection()).run(out, formatters);
+    }
+
+    /**
+     * Disassembles the instructions in the address range [from, to), which must start in a code section and is cut
+     * off at its end. Labels are only computed from the instructions in the range.
+     */
+    public void disassembleRange(PrintWriter out, long from, long to) {
+        ElfSection section = getCodeSection(from);
+        long fromOffset = (from - section.header.address) & ~3L;
+        long toOffset = Math.min(to - section.header.address, section.header.size);
+        disassembleSection(out, section, fromOffset, toOffset);
+    }
+
+    /**
+     * Disassembles the function or other symbol with the specified name, from its st_value through its st_size.
+     */
+    public void disassembleSymbol(PrintWriter out, String name) throws IOException {
+        ElfSymbol symbol = file.getELFSymbol(name);
+        if (symbol == null)
+            throw new InputMismatchException("No symbol " + name + " found");
+        int shndx = symbol.st_shndx & 0xFFFF;
+        if (shndx == 0 || shndx >= file.num_sh)
+            throw new InputMismatchException("Symbol " + name + " is not defined in a section");
+        ElfSection section = file.getSection(shndx);
+        long address = file.e_type == ElfFile.ET_REL ? section.header.address + symbol.st_value : symbol.st_value;
+        long fromOffset = address - section.header.address;
+        disassembleSection(out, section, fromOffset, Math.min(fromOffset + symbol.st_size, section.header.size));
+    }
+
+    /**
+     * Disassembles the instructions in [fromOffset, toOffset) of the section.
+     */
+    void disassembleSection(PrintWriter out, ElfSection textSection, long fromOffset, long toOffset) {
+        file.getDynamicSymbolTableSection();
+        file.getSymbolTableSection();
+        long curOffset = fromOffset;
+        Set<Long> unmarked = findUnmarkedLocations(textSection, fromOffset, toOffset);
+        List<ElfRelocationSection> relocations = findRelocations(textSection);
+        IntBuffer code = textSection.contentsAsInts();
+        while (curOffset < toOffset) {
+            disassembleWord(out, textSection, code, curOffset, unmarked::contains, relocations);
             curOffset += 4;
         }
     }
 
-    private int signExtend(int val, int nBits) {
-        if ((val & (1 << nBits)) != 0) { // I hope it works cuz i don't have binaries to test this
-            val = -(-val & ((1 << nBits) - 1));
+    /**
+     * Prints the line of the instruction word found at the offset in the section, followed by the line of its
+     * relocation if any.
+     */
+    void disassembleInstruction(PrintWriter out, ElfSection textSection, int instruction, long curOffset,
+                                LongPredicate isUnmarked, List<ElfRelocationSection> relocations) {
+        printLine(out, textSection, instruction, decodeTable.find(instruction), curOffset, isUnmarked, relocations);
+    }
+
+    /**
+     * Prints the line of the word at the offset in the section as {@link #disassembleInstruction} does, or that of
+     * {@link #disassembleTail} for the trailing partial word of a section whose size is not a multiple of 4, as padding
+     * with compressed instructions leaves.
+     */
+    void disassembleWord(PrintWriter out, ElfSection textSection, IntBuffer code, long curOffset,
+                         LongPredicate isUnmarked, List<ElfRelocationSection> relocations) {
+        int word = (int) (curOffset >>> 2);
+        if (word < code.limit()) {
+            disassembleInstruction(out, textSection, code.get(word), curOffset, isUnmarked, relocations);
+        } else {
+            disassembleTail(out, textSection, curOffset, isUnmarked, relocations);
+        }
+    }
+
+    /**
+     * Prints the line of the partial word at the offset, the last bytes of the section, as unknown.
+     */
+    void disassembleTail(PrintWriter out, ElfSection textSection, long curOffset,
+                         LongPredicate isUnmarked, List<ElfRelocationSection> relocations) {
+        printLine(out, textSection, 0, null, curOffset, isUnmarked, relocations);
+    }
+
+    private void printLine(PrintWriter out, ElfSection textSection, int instruction, DecodeTable.Entry entry, long curOffset,
+                           LongPredicate isUnmarked, List<ElfRelocationSection> relocations) {
+        long virtualAddress = curOffset + textSection.header.address;
+        out.print(String.format("%08X: ", virtualAddress));
+        ElfSymbol symb = file.getELFSymbol(virtualAddress);
+        if (symb != null && symb.st_value == virtualAddress && symb.section_type == ElfSymbol.STT_FUNC) {
+            out.printf("<%s>\t", symb.getName());
+        } else if (isUnmarked.test(virtualAddress)) {
+            out.printf("<LOC_0x%08X>\t", virtualAddress);
+        } else {
+            out.print("\t");
+        }
+        if (entry != null) {
+            entry.format.print(this, out, entry.mnemonic, instruction, textSection, curOffset, isUnmarked, relocations);
+        } else {
+            out.printf("????%n");
+        }
+        if (!relocations.isEmpty()) {
+            String annotation = getRelocationAnnotation(textSection, relocations, curOffset);
+            if (annotation != null) out.println(annotation);
         }
-        return val;
     }
 
-    private static int getIntWidth(int a) {
-        if (a == 0)
-            return 1;
-        return (int) Math.floor(Math.log10(Math.abs(a))) + 1 + (a < 0 ? 1 : 0);
+    /**
+     * Sign-extends val from its bit nBits, which is the sign bit of an (nBits + 1)-bit field.
+     */
+    static int signExtend(int val, int nBits) {
+        return val << (31 - nBits) >> (31 - nBits);
     }
 
     static String symbolTypeToString(int type) {
@@ -260,6 +581,27 @@ public class RISCVDisassembler {
         }
     }
 
+    static String relocationTypeToString(int type) {
+        switch (type) {
+            case R_RISCV_BRANCH:
+                return "R_RISCV_BRANCH";
+            case R_RISCV_JAL:
+                return "R_RISCV_JAL";
+            case R_RISCV_CALL:
+                return "R_RISCV_CALL";
+            case R_RISCV_CALL_PLT:
+                return "R_RISCV_CALL_PLT";
+            case R_RISCV_HI20:
+                return "R_RISCV_HI20";
+            case R_RISCV_LO12_I:
+                return "R_RISCV_LO12_I";
+            case R_RISCV_LO12_S:
+                return "R_RISCV_LO12_S";
+            default:
+                return null;
+        }
+    }
+
     static String bindingToString(int binding) {
         switch (binding) {
             case (ElfSymbol.BINDING_GLOBAL):
@@ -293,28 +635,10 @@ public class RISCVDisassembler {
     }
 
     public void dumpSymTable(PrintWriter out) {
-        out.println("Symtable:");
-        ElfSymbolTableSection symtable = file.getSymbolTableSection();
-        int symbolCount = symtable.symbols.length;
-        int firstColWidth = getIntWidth(symbolCount);
-        out.println(String.format("%" + (firstColWidth + 2) + "s   %8s %5s %7s %7s %8s %4s %s",
-                "Symbol".substring(0, firstColWidth + 2), "Value", "Size", "Type", "Bind", "Vis", "Index", "Name"));
-        for (int i = 0; i < symbolCount; i++) {
-            ElfSymbol symbol = symtable.symbols[i];
-            out.println(String.format("[%" + firstColWidth + "s] 0x%08X %5s %7s %7s %8s %4s %s",
-                    i,
-                    symbol.st_value,
-                    symbol.st_size,
-                    symbolTypeToString(symbol.getType()),
-                    bindingToString(symbol.getBinding()),
-                    visibilityToString(symbol.getVisibility()),
-                    shindexToString(symbol.st_shndx),
-                    symbol.st_name == 0 ? "" : symbol.getName()
-            ));
-        }
+        new SymbolTableDump(file, file.getSymbolTableSection()).write(out);
     }
 
-    private String shindexToString(short stShndx) {
+    static String shindexToString(short stShndx) {
         if (stShndx == ElfSectionHeader.SHN_ABS) {
             return "ABS";
         } else if (stShndx == ElfSectionHeader.SHN_COMMON) {
@@ -0,0 +1,178 @@
+package me.alzhanov.ELF;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.InputMismatchException;
+import java.util.Locale;
+
+/**
+ * Counts of PC samples per instruction word of an address range, such as the .text section.
+ * <p>
+ * The counts are a primitive array with a slot per word of the range, so the memory taken depends on the size of the
+ * code and not on the number of samples. Sample files are read through a fixed buffer, so traces of any length are
+ * aggregated in constant memory.
+ */
+public final class SampleHistogram {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** The encodings of a sample file. */
+    public enum Format {
+        /** Raw 32-bit addresses in the byte order of the ELF file. */
+        U32,
+        /** Raw 64-bit addresses in the byte order of the ELF file. */
+        U64,
+        /** Hexadecimal addresses, with or without 0x, separated by white space or commas. */
+        TEXT;
+
+        public static Format parse(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown sample format: " + name);
+            }
+        }
+    }
+
+    private final long from;
+    private final long length;
+    /** The bits of an offset from the start that count, the low 32 of them for the addresses of a 32-bit file. */
+    private final long offsetMask;
+    private final long[] counts;
+    private long total;
+    private long outside;
+
+    /**
+     * Creates an empty histogram of the addresses [from, to).
+     */
+    public SampleHistogram(long from, long to) {
+        this(from, to, false);
+    }
+
+    /**
+     * Creates an empty histogram of the addresses [from, to), which are taken modulo 2^32 if address32 is set, so that
+     * the addresses of a 32-bit file match whether they are sign-extended, as its headers are read, or zero-extended, as
+     * raw samples are.
+     */
+    public SampleHistogram(long from, long to, boolean address32) {
+        this.from = from;
+        this.offsetMask = address32 ? 0xFFFFFFFFL : -1L;
+        this.length = (to - from) & offsetMask;
+        this.counts = new long[(int) ((length + 3) >>> 2)];
+    }
+
+    public void add(long address) {
+        total++;
+        long offset = (address - from) & offsetMask;
+        if (Long.compareUnsigned(offset, length) < 0) {
+            counts[(int) (offset >>> 2)]++;
+        } else {
+            outside++;
+        }
+    }
+
+    /** The samples of the instruction word at the address. */
+    public long count(long address) {
+        long offset = (address - from) & offsetMask;
+        return Long.compareUnsigned(offset, length) < 0 ? counts[(int) (offset >>> 2)] : 0;
+    }
+
+    /** The samples of the words in [start, end), which must lie in the range of the histogram. */
+    public long sum(long start, long end) {
+        long sum = 0;
+        for (long address = start; address < end; address += 4) sum += count(address);
+        return sum;
+    }
+
+    /** All the samples added, including those outside the range. */
+    public long total() {
+        return total;
+    }
+
+    /** The samples outside the range. */
+    public long outside() {
+        return outside;
+    }
+
+    /**
+     * Returns the percentage of all samples that count is.
+     */
+    public double percent(long count) {
+        return total == 0 ? 0 : count * 100.0 / total;
+    }
+
+    /**
+     * Guesses the format of a sample file from its first bytes: text if they are all hexadecimal digits, x, commas and
+     * white space, raw addresses of the size of the ELF class otherwise.
+     */
+    public static Format detect(Path path, boolean elf64) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            ByteBuffer start = ByteBuffer.allocate(4096);
+            while (start.hasRemaining() && channel.read(start) != -1) {
+                // Reads until the buffer is full or the file ends.
+            }
+            start.flip();
+            while (start.hasRemaining()) {
+                int b = start.get();
+                if (Character.digit(b, 16) == -1 && b != 'x' && b != 'X' && b != ',' && !Character.isWhitespace(b)) {
+                    return elf64 ? Format.U64 : Format.U32;
+                }
+            }
+            return Format.TEXT;
+        }
+    }
+
+    /**
+     * Reads the samples of the file into the histogram.
+     *
+     * @param order the byte order of raw addresses
+     */
+    public void read(Path path, Format format, ByteOrder order) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+            // The hexadecimal address being parsed, which may continue in the next buffer.
+            long value = 0;
+            int digits = 0;
+            long position = 0;
+            while (true) {
+                int read = channel.read(buffer);
+                buffer.flip();
+                switch (format) {
+                    case U32:
+                        while (buffer.remaining() >= 4) add(buffer.getInt() & 0xFFFFFFFFL);
+                        break;
+                    case U64:
+                        while (buffer.remaining() >= 8) add(buffer.getLong());
+                        break;
+                    default:
+                        while (buffer.hasRemaining()) {
+                            int b = buffer.get();
+                            int digit = Character.digit(b, 16);
+                            if (digit != -1) {
+                                value = value << 4 | digit;
+                                digits++;
+                            } else if ((b == 'x' || b == 'X') && digits == 1 && value == 0) {
+                                digits = 0;
+                            } else if (b == ',' || Character.isWhitespace(b)) {
+                                if (digits != 0) add(value);
+                                value = 0;
+                                digits = 0;
+                            } else {
+                                throw new InputMismatchException(String.format("Unexpected character '%c' at byte %d of the sample file",
+                                        (char) (b & 0xFF), position + buffer.position() - 1));
+                            }
+                        }
+                        break;
+                }
+                position += buffer.position();
+                buffer.compact();
+                if (read == -1) break;
+            }
+            if (digits != 0) add(value);
+            if (buffer.position() != 0)
+                throw new InputMismatchException("The sample file ends in the middle of an address");
+        }
+    }
+}
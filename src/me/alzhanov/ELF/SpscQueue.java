@@ -0,0 +1,59 @@
+package me.alzhanov.ELF;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer thread.
+ * <p>
+ * The producer owns the tail counter and the consumer the head counter; each publishes its progress with an ordered
+ * store and reads the other's with a volatile load, so no locks or CAS loops are needed. A full queue makes the
+ * producer wait and an empty one the consumer, spinning briefly before parking, which gives backpressure without
+ * blocking primitives.
+ */
+final class SpscQueue<T> {
+    private static final int SPINS = 1 << 10;
+
+    private final Object[] ring;
+    private final int mask;
+    /** Count of items taken, written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+    /** Count of items put, written by the producer only. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1);
+        ring = new Object[size];
+        mask = size - 1;
+    }
+
+    void put(T item) throws InterruptedException {
+        long t = tail.get();
+        for (int spins = 0; t - head.get() == ring.length; spins++) backOff(spins);
+        ring[(int) t & mask] = item;
+        tail.lazySet(t + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    T take() throws InterruptedException {
+        long h = head.get();
+        for (int spins = 0; tail.get() == h; spins++) backOff(spins);
+        int slot = (int) h & mask;
+        T item = (T) ring[slot];
+        ring[slot] = null;
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    private static void backOff(int spins) throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+}
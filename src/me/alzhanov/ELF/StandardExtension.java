@@ -0,0 +1,176 @@
+package me.alzhanov.ELF;
+
+import static me.alzhanov.ELF.InstructionFormat.*;
+
+/**
+ * The standard RV32 extensions the disassembler knows. {@link #C} contributes no entries, since instructions are read
+ * as aligned 32-bit words and compressed ones are printed as unknown, and {@link IsaRegistry#parse} leaves it out.
+ */
+public enum StandardExtension implements IsaExtension {
+    I {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            table.add("lui", OPCODE, 0x37, U);
+            table.add("auipc", OPCODE, 0x17, U);
+            table.add("jal", OPCODE, 0x6F, J);
+            table.add("jalr", FUNCT3, 0x67, InstructionFormat.I);
+            String[] branches = {"beq", "bne", null, null, "blt", "bge", "bltu", "bgeu"};
+            String[] loads = {"lb", "lh", "lw", null, "lbu", "lhu", null, null};
+            String[] stores = {"sb", "sh", "sw", null, null, null, null, null};
+            String[] immediates = {"addi", null, "slti", "sltiu", "xori", null, "ori", "andi"};
+            String[] registers = {"add", "sll", "slt", "sltu", "xor", "srl", "or", "and"};
+            for (int funct3 = 0; funct3 < 8; funct3++) {
+                if (branches[funct3] != null) table.add(branches[funct3], FUNCT3, 0x63 | funct3 << 12, B);
+                if (loads[funct3] != null) table.add(loads[funct3], FUNCT3, 0x03 | funct3 << 12, LOAD);
+                if (stores[funct3] != null) table.add(stores[funct3], FUNCT3, 0x23 | funct3 << 12, STORE);
+                if (immediates[funct3] != null) {
+                    // Only addi and slti are printed sign-extended.
+                    InstructionFormat format = funct3 <= 2 ? InstructionFormat.I : I_UNSIGNED;
+                    table.add(immediates[funct3], FUNCT3, 0x13 | funct3 << 12, format);
+                }
+                table.add(registers[funct3], FUNCT7, 0x33 | funct3 << 12, R);
+                // FENCE.I is the only other instruction of its opcode.
+                if (funct3 != 1) table.add("fence", FUNCT3, 0x0F | funct3 << 12, FENCE);
+            }
+            // The shifts by an immediate are decoded leniently, whatever the upper bits of the immediate.
+            table.add("slli", FUNCT3, 0x1013, I_UNSIGNED);
+            table.add("srli", FUNCT3, 0x5013, I_UNSIGNED);
+            table.add("srai", FUNCT7, 0x40005013, SHAMT);
+            table.add("sub", FUNCT7, 0x40000033, R);
+            table.add("sra", FUNCT7, 0x40005033, R);
+            table.add("ecall", WORD, 0x73, NO_OPERANDS);
+            table.add("ebreak", WORD, 0x100073, NO_OPERANDS);
+        }
+    },
+    M {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            String[] names = {"mul", "mulh", "mulhsu", "mulhu", "div", "divu", "rem", "remu"};
+            for (int funct3 = 0; funct3 < 8; funct3++) table.add(names[funct3], FUNCT7, 0x02000033 | funct3 << 12, R);
+        }
+    },
+    A {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            // The aq and rl bits 26:25 are printed as a suffix.
+            table.add("lr.w", 0xF9F0707F, 0x1000202F, LR);
+            String[] names = {"amoadd.w", "amoswap.w", null, "sc.w", "amoxor.w", null, null, null,
+                    "amoor.w", null, null, null, "amoand.w", null, null, null,
+                    "amomin.w", null, null, null, "amomax.w", null, null, null,
+                    "amominu.w", null, null, null, "amomaxu.w"};
+            for (int funct5 = 0; funct5 < names.length; funct5++) {
+                if (names[funct5] != null) table.add(names[funct5], 0xF800707F, funct5 << 27 | 0x202F, AMO);
+            }
+        }
+    },
+    F {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            table.add("flw", FUNCT3, 0x2007, load(InstructionFormat.F));
+            table.add("fsw", FUNCT3, 0x2027, store(InstructionFormat.F));
+            addFloatingPoint(table, 0, ".s");
+            table.add("fcvt.w.s", 0xFFF0007F, 0xC0000053, registers(X, InstructionFormat.F, NONE, true));
+            table.add("fcvt.wu.s", 0xFFF0007F, 0xC0100053, registers(X, InstructionFormat.F, NONE, true));
+            table.add("fcvt.s.w", 0xFFF0007F, 0xD0000053, registers(InstructionFormat.F, X, NONE, true));
+            table.add("fcvt.s.wu", 0xFFF0007F, 0xD0100053, registers(InstructionFormat.F, X, NONE, true));
+            table.add("fmv.x.w", 0xFFF0707F, 0xE0000053, registers(X, InstructionFormat.F, NONE, false));
+            table.add("fmv.w.x", 0xFFF0707F, 0xF0000053, registers(InstructionFormat.F, X, NONE, false));
+        }
+    },
+    D {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            table.add("fld", FUNCT3, 0x3007, load(InstructionFormat.F));
+            table.add("fsd", FUNCT3, 0x3027, store(InstructionFormat.F));
+            addFloatingPoint(table, 1, ".d");
+            table.add("fcvt.s.d", 0xFFF0007F, 0x40100053, registers(InstructionFormat.F, InstructionFormat.F, NONE, true));
+            table.add("fcvt.d.s", 0xFFF0007F, 0x42000053, registers(InstructionFormat.F, InstructionFormat.F, NONE, true));
+            table.add("fcvt.w.d", 0xFFF0007F, 0xC2000053, registers(X, InstructionFormat.F, NONE, true));
+            table.add("fcvt.wu.d", 0xFFF0007F, 0xC2100053, registers(X, InstructionFormat.F, NONE, true));
+            table.add("fcvt.d.w", 0xFFF0007F, 0xD2000053, registers(InstructionFormat.F, X, NONE, true));
+            table.add("fcvt.d.wu", 0xFFF0007F, 0xD2100053, registers(InstructionFormat.F, X, NONE, true));
+        }
+    },
+    C {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+        }
+    },
+    ZICSR {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            String[] names = {null, "csrrw", "csrrs", "csrrc", null, "csrrwi", "csrrsi", "csrrci"};
+            for (int funct3 = 0; funct3 < 8; funct3++) {
+                if (names[funct3] != null) table.add(names[funct3], FUNCT3, 0x73 | funct3 << 12, CSR);
+            }
+        }
+    },
+    ZIFENCEI {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            table.add("fence.i", FUNCT3, 0x100F, NO_OPERANDS);
+        }
+    },
+    ZBA {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            table.add("sh1add", FUNCT7, 0x20002033, R);
+            table.add("sh2add", FUNCT7, 0x20004033, R);
+            table.add("sh3add", FUNCT7, 0x20006033, R);
+        }
+    },
+    ZBB {
+        @Override
+        public void addEntries(DecodeTable.Builder table) {
+            table.add("andn", FUNCT7, 0x40007033, R);
+            table.add("orn", FUNCT7, 0x40006033, R);
+            table.add("xnor", FUNCT7, 0x40004033, R);
+            table.add("min", FUNCT7, 0x0A004033, R);
+            table.add("minu", FUNCT7, 0x0A005033, R);
+            table.add("max", FUNCT7, 0x0A006033, R);
+            table.add("maxu", FUNCT7, 0x0A007033, R);
+            table.add("rol", FUNCT7, 0x60001033, R);
+            table.add("ror", FUNCT7, 0x60005033, R);
+            table.add("rori", FUNCT7, 0x60005013, SHAMT);
+            table.add("clz", FUNCT12, 0x60001013, UNARY);
+            table.add("ctz", FUNCT12, 0x60101013, UNARY);
+            table.add("cpop", FUNCT12, 0x60201013, UNARY);
+            table.add("sext.b", FUNCT12, 0x60401013, UNARY);
+            table.add("sext.h", FUNCT12, 0x60501013, UNARY);
+            table.add("orc.b", FUNCT12, 0x28705013, UNARY);
+            table.add("rev8", FUNCT12, 0x69805013, UNARY);
+            table.add("zext.h", FUNCT12, 0x08004033, UNARY);
+        }
+    };
+
+    private static final int OPCODE = 0x7F;
+    private static final int FUNCT3 = 0x707F;
+    private static final int FUNCT7 = 0xFE00707F;
+    /** funct7, rs2 and funct3, for instructions with a fixed rs2 field. */
+    private static final int FUNCT12 = 0xFFF0707F;
+    private static final int WORD = 0xFFFFFFFF;
+
+    /**
+     * Adds the arithmetic of F or D, told apart by the fmt field (bits 26:25) of the funct7.
+     */
+    private static void addFloatingPoint(DecodeTable.Builder table, int fmt, String suffix) {
+        int f = InstructionFormat.F;
+        String[] fused = {"fmadd", "fmsub", "fnmsub", "fnmadd"};
+        for (int k = 0; k < fused.length; k++) table.add(fused[k] + suffix, 0x0600007F, fmt << 25 | 0x43 | k << 2, R4);
+        int op = fmt << 25 | 0x53;
+        table.add("fadd" + suffix, 0xFE00007F, op, registers(f, f, f, true));
+        table.add("fsub" + suffix, 0xFE00007F, op | 0x04 << 25, registers(f, f, f, true));
+        table.add("fmul" + suffix, 0xFE00007F, op | 0x08 << 25, registers(f, f, f, true));
+        table.add("fdiv" + suffix, 0xFE00007F, op | 0x0C << 25, registers(f, f, f, true));
+        table.add("fsqrt" + suffix, 0xFFF0007F, op | 0x2C << 25, registers(f, f, NONE, true));
+        table.add("fsgnj" + suffix, FUNCT7, op | 0x10 << 25, registers(f, f, f, false));
+        table.add("fsgnjn" + suffix, FUNCT7, op | 0x10 << 25 | 1 << 12, registers(f, f, f, false));
+        table.add("fsgnjx" + suffix, FUNCT7, op | 0x10 << 25 | 2 << 12, registers(f, f, f, false));
+        table.add("fmin" + suffix, FUNCT7, op | 0x14 << 25, registers(f, f, f, false));
+        table.add("fmax" + suffix, FUNCT7, op | 0x14 << 25 | 1 << 12, registers(f, f, f, false));
+        table.add("fle" + suffix, FUNCT7, op | 0x50 << 25, registers(X, f, f, false));
+        table.add("flt" + suffix, FUNCT7, op | 0x50 << 25 | 1 << 12, registers(X, f, f, false));
+        table.add("feq" + suffix, FUNCT7, op | 0x50 << 25 | 2 << 12, registers(X, f, f, false));
+        table.add("fclass" + suffix, FUNCT12, op | 0x70 << 25 | 1 << 12, registers(X, f, NONE, false));
+    }
+}
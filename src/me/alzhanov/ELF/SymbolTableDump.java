@@ -0,0 +1,340 @@
+package me.alzhanov.ELF;
+
+import net.fornwall.jelf.*;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The symbol table listing of {@link RISCVDisassembler#dumpSymTable}, rendered straight from the raw table entries.
+ * <p>
+ * Fields are read from the section contents on demand rather than through {@link ElfSymbol} objects, names are copied
+ * from the string table without being decoded to strings, and every column is laid out once up front, so a row is a
+ * handful of array copies. Rows can be filtered by type, binding and section index, and ordered by address, size or
+ * name by sorting primitive arrays of packed keys.
+ * <p>
+ * Entries are read in the 32-bit layout, which is all the disassembler accepts.
+ */
+public final class SymbolTableDump {
+
+    /** File order. */
+    public static final int SORT_NONE = 0;
+    public static final int SORT_ADDRESS = 1;
+    public static final int SORT_SIZE = 2;
+    public static final int SORT_NAME = 3;
+
+    /** Matches any type, binding or section index in {@link #select}. */
+    public static final int ANY = -1;
+
+    private static final int ENTRY_SIZE = 16;
+    private static final int BATCH_SIZE = 1 << 16;
+    private static final char[][] TYPE_COLUMN = new char[16][];
+    private static final char[][] BINDING_COLUMN = new char[16][];
+    private static final char[][] VISIBILITY_COLUMN = new char[4][];
+
+    static {
+        for (int i = 0; i < 16; i++) {
+            TYPE_COLUMN[i] = padLeft(RISCVDisassembler.symbolTypeToString(i), 7);
+            BINDING_COLUMN[i] = padLeft(RISCVDisassembler.bindingToString(i), 7);
+        }
+        for (int i = 0; i < 4; i++) {
+            VISIBILITY_COLUMN[i] = padLeft(RISCVDisassembler.visibilityToString(ElfSymbol.Visibility.values()[i]), 8);
+        }
+    }
+
+    private final ByteBuffer entries;
+    private final int entrySize;
+    private final int count;
+    private final ByteBuffer names;
+    /** Width of the index column, without the brackets. */
+    private final int indexWidth;
+    /** The section index column, filled in as values are seen. */
+    private final char[][] sectionColumn = new char[1 << 16][];
+
+    public SymbolTableDump(ElfFile file, ElfSymbolTableSection table) {
+        entries = table.contents();
+        entrySize = (int) table.header.entry_size;
+        if (entrySize < ENTRY_SIZE) throw new ElfException("Unsupported symbol entry size " + entrySize);
+        count = entries.limit() / entrySize;
+        ElfStringTable strings = table.header.type == ElfSectionHeader.SHT_DYNSYM
+                ? file.getDynamicStringTable() : file.getStringTable();
+        names = strings != null ? strings.contents() : ByteBuffer.allocate(0);
+        indexWidth = count == 0 ? 1 : (int) Math.floor(Math.log10(count)) + 1;
+    }
+
+    /** The number of entries in the table. */
+    public int size() {
+        return count;
+    }
+
+    private int nameOffset(int i) {
+        return entries.getInt(i * entrySize);
+    }
+
+    private long value(int i) {
+        return entries.getInt(i * entrySize + 4);
+    }
+
+    private long size(int i) {
+        return entries.getInt(i * entrySize + 8);
+    }
+
+    private int info(int i) {
+        return entries.get(i * entrySize + 12) & 0xFF;
+    }
+
+    private int other(int i) {
+        return entries.get(i * entrySize + 13) & 0xFF;
+    }
+
+    private int sectionIndex(int i) {
+        return entries.getShort(i * entrySize + 14) & 0xFFFF;
+    }
+
+    /**
+     * Returns the indices of the entries matching the type, binding and section index, each of which may be
+     * {@link #ANY}, in file order.
+     */
+    public int[] select(int type, int binding, int shndx) {
+        return IntStream.range(0, count).parallel()
+                .filter(i -> (type == ANY || (info(i) & 0x0F) == type)
+                        && (binding == ANY || info(i) >> 4 == binding)
+                        && (shndx == ANY || sectionIndex(i) == shndx))
+                .toArray();
+    }
+
+    /**
+     * Sorts the entry indices with one of the SORT_* orders. Entries with equal keys keep their relative order.
+     */
+    public void sort(int[] indices, int order) {
+        switch (order) {
+            case SORT_NONE:
+                return;
+            case SORT_ADDRESS:
+            case SORT_SIZE: {
+                // Unsigned 32-bit key above the index, which also breaks ties by file order.
+                long[] keys = new long[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    long key = order == SORT_ADDRESS ? value(indices[i]) : size(indices[i]);
+                    keys[i] = (key & 0xFFFFFFFFL) << 32 | indices[i];
+                }
+                sortUnsigned(keys);
+                for (int i = 0; i < indices.length; i++) indices[i] = (int) keys[i];
+                return;
+            }
+            case SORT_NAME:
+                sortByName(indices);
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown sort order " + order);
+        }
+    }
+
+    /**
+     * Sorts on the first four bytes of the names packed with the index, then sorts each run sharing a prefix on the
+     * full names. Names compare as unsigned bytes, which is string order for ASCII.
+     */
+    private void sortByName(int[] indices) {
+        long[] keys = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            keys[i] = (namePrefix(indices[i]) & 0xFFFFFFFFL) << 32 | indices[i];
+        }
+        sortUnsigned(keys);
+        for (int i = 0; i < indices.length; i++) indices[i] = (int) keys[i];
+        for (int start = 0; start < keys.length; ) {
+            int prefix = (int) (keys[start] >>> 32);
+            int end = start + 1;
+            while (end < keys.length && (int) (keys[end] >>> 32) == prefix) end++;
+            // A prefix ending in a zero byte is a whole name, so the run is already in order.
+            if (end - start > 1 && (prefix & 0xFF) != 0) {
+                Integer[] run = new Integer[end - start];
+                for (int i = start; i < end; i++) run[i - start] = indices[i];
+                Arrays.sort(run, this::compareNames);
+                for (int i = start; i < end; i++) indices[i] = run[i - start];
+            }
+            start = end;
+        }
+    }
+
+    private int namePrefix(int i) {
+        int prefix = 0;
+        int offset = nameOffset(i);
+        boolean ended = offset == 0;
+        for (int k = 0; k < 4; k++) {
+            int b = ended ? 0 : names.get(offset + k) & 0xFF;
+            if (b == 0) ended = true;
+            prefix = prefix << 8 | b;
+        }
+        return prefix;
+    }
+
+    private int compareNames(int a, int b) {
+        int offsetA = nameOffset(a);
+        int offsetB = nameOffset(b);
+        for (int k = 0; ; k++) {
+            int byteA = offsetA == 0 ? 0 : names.get(offsetA + k) & 0xFF;
+            int byteB = offsetB == 0 ? 0 : names.get(offsetB + k) & 0xFF;
+            if (byteA != byteB || byteA == 0) return byteA - byteB;
+        }
+    }
+
+    private static void sortUnsigned(long[] values) {
+        // Flipping the sign bit maps unsigned order onto signed order.
+        for (int i = 0; i < values.length; i++) values[i] ^= Long.MIN_VALUE;
+        Arrays.parallelSort(values);
+        for (int i = 0; i < values.length; i++) values[i] ^= Long.MIN_VALUE;
+    }
+
+    /**
+     * Prints the entries matching the type, binding and section index (each possibly {@link #ANY}) in the given
+     * SORT_* order.
+     */
+    public void write(PrintWriter out, int type, int binding, int shndx, int order) {
+        int[] indices = select(type, binding, shndx);
+        sort(indices, order);
+        write(out, indices);
+    }
+
+    /** Prints every entry in file order. */
+    public void write(PrintWriter out) {
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) indices[i] = i;
+        write(out, indices);
+    }
+
+    /** Prints the heading and the given entries, in the format of {@link RISCVDisassembler#dumpSymTable}. */
+    public void write(PrintWriter out, int[] indices) {
+        String lineSeparator = System.lineSeparator();
+        out.write("Symtable:" + lineSeparator);
+        out.write(String.format("%" + (indexWidth + 2) + "s   %8s %5s %7s %7s %8s %4s %s",
+                "Symbol".substring(0, Math.min(indexWidth + 2, "Symbol".length())), "Value", "Size", "Type", "Bind", "Vis", "Index", "Name"));
+        out.write(lineSeparator);
+
+        char[] batch = new char[BATCH_SIZE];
+        int length = 0;
+        for (int i : indices) {
+            int nameOffset = nameOffset(i);
+            int nameLength = 0;
+            boolean ascii = true;
+            if (nameOffset != 0) {
+                int b;
+                while ((b = names.get(nameOffset + nameLength)) != 0) {
+                    if (b < 0) ascii = false;
+                    nameLength++;
+                }
+            }
+            String decodedName = null;
+            if (!ascii) {
+                // Decoded the way ElfStringTable does it.
+                byte[] bytes = new byte[nameLength];
+                names.get(nameOffset, bytes);
+                decodedName = new String(bytes);
+                nameLength = decodedName.length();
+            }
+            int other = other(i);
+            if (other > 3) throw new ElfException("Unsupported st_other=" + other);
+
+            // The fixed columns take at most 80 characters.
+            int rowLength = 80 + indexWidth + nameLength + lineSeparator.length();
+            if (length + rowLength > batch.length) {
+                out.write(batch, 0, length);
+                length = 0;
+                if (rowLength > batch.length) batch = new char[rowLength];
+            }
+            batch[length++] = '[';
+            length = putLeft(batch, length, Integer.toString(i), indexWidth);
+            batch[length++] = ']';
+            batch[length++] = ' ';
+            batch[length++] = '0';
+            batch[length++] = 'x';
+            length = putHex(batch, length, value(i));
+            batch[length++] = ' ';
+            length = putLeft(batch, length, Long.toString(size(i)), 5);
+            batch[length++] = ' ';
+            length = put(batch, length, TYPE_COLUMN[info(i) & 0x0F]);
+            batch[length++] = ' ';
+            length = put(batch, length, BINDING_COLUMN[info(i) >> 4]);
+            batch[length++] = ' ';
+            length = put(batch, length, VISIBILITY_COLUMN[other]);
+            batch[length++] = ' ';
+            length = put(batch, length, sectionColumn(sectionIndex(i)));
+            batch[length++] = ' ';
+            if (decodedName == null) {
+                for (int k = 0; k < nameLength; k++) batch[length++] = (char) names.get(nameOffset + k);
+            } else {
+                length = put(batch, length, decodedName.toCharArray());
+            }
+            for (int k = 0; k < lineSeparator.length(); k++) batch[length++] = lineSeparator.charAt(k);
+        }
+        out.write(batch, 0, length);
+    }
+
+    private char[] sectionColumn(int shndx) {
+        char[] column = sectionColumn[shndx];
+        if (column == null) {
+            column = sectionColumn[shndx] = padLeft(RISCVDisassembler.shindexToString((short) shndx), 4);
+        }
+        return column;
+    }
+
+    private static char[] padLeft(String s, int width) {
+        char[] column = new char[Math.max(width, s.length())];
+        putLeft(column, 0, s, width);
+        return column;
+    }
+
+    private static int putLeft(char[] buffer, int position, String s, int width) {
+        for (int k = s.length(); k < width; k++) buffer[position++] = ' ';
+        s.getChars(0, s.length(), buffer, position);
+        return position + s.length();
+    }
+
+    private static int put(char[] buffer, int position, char[] column) {
+        System.arraycopy(column, 0, buffer, position, column.length);
+        return position + column.length;
+    }
+
+    /** Like %08X of a long, so negative values print all sixteen digits. */
+    private static int putHex(char[] buffer, int position, long value) {
+        int digits = Math.max(8, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+        for (int k = digits - 1; k >= 0; k--) {
+            buffer[position + k] = Character.toUpperCase(Character.forDigit((int) (value & 0xF), 16));
+            value >>>= 4;
+        }
+        return position + digits;
+    }
+
+    /** Parses a symbol type name as printed in the listing, or a number. */
+    public static int parseType(String type) {
+        for (int i = 0; i < 16; i++) {
+            if (RISCVDisassembler.symbolTypeToString(i).equalsIgnoreCase(type)) return i;
+        }
+        return Integer.decode(type);
+    }
+
+    /** Parses a binding name as printed in the listing, or a number. */
+    public static int parseBinding(String binding) {
+        for (int i = 0; i < 16; i++) {
+            if (RISCVDisassembler.bindingToString(i).equalsIgnoreCase(binding)) return i;
+        }
+        return Integer.decode(binding);
+    }
+
+    /** Parses address, size, name or none. */
+    public static int parseSortOrder(String order) {
+        switch (order.toLowerCase()) {
+            case "none":
+                return SORT_NONE;
+            case "address":
+                return SORT_ADDRESS;
+            case "size":
+                return SORT_SIZE;
+            case "name":
+                return SORT_NAME;
+            default:
+                throw new IllegalArgumentException("Unknown sort order: " + order);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package me.alzhanov.ELF;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static me.alzhanov.ELF.Interpreter.*;
+
+/**
+ * Translates a region of hot {@link Interpreter} blocks into a hidden class, which HotSpot compiles to native code
+ * like any other class.
+ * <p>
+ * The region becomes one method that keeps the registers in locals, loaded from the register array on entry and the
+ * written ones stored back on exit. Every block starts at a label, and branches and direct jumps between blocks of the
+ * region are JVM jumps, so that a loop of the firmware is a loop of the method. Anything else leaves the method through
+ * an exit stub returning the next PC: jumps out of the region and indirect jumps, which go to their target, and the
+ * instructions the interpreter handles itself (ECALL, EBREAK, illegal instructions, accesses outside the memory),
+ * which go to the instruction so that the interpreter executes it next. A store into code exits after the store, for
+ * the interpreter to continue with freshly decoded blocks.
+ * <p>
+ * The JDK has no API for writing class files before version 22, so the class file is written here. All the locals are
+ * initialized on entry and the operand stack is empty at every jump target, so every stack map frame is the same.
+ */
+final class Translator {
+    static final int MAX_REGION_BLOCKS = 32;
+    static final int MAX_REGION_INSTRUCTIONS = 256;
+    /** The largest method HotSpot compiles by default, see -XX:HugeMethodLimit. */
+    private static final int MAX_CODE_LENGTH = 8000;
+
+    /** The method of a translated region. */
+    interface Compiled {
+        /**
+         * Runs the region until it leaves it or has executed at least budget instructions, and returns the number of
+         * instructions executed in the upper half and the next PC in the lower half.
+         */
+        long run(int[] x, byte[] memory, Interpreter interpreter, int budget);
+    }
+
+    private static final String CLASS_NAME = "me/alzhanov/ELF/TranslatedRegion";
+    private static final String INTERPRETER = "me/alzhanov/ELF/Interpreter";
+    private static final String COMPILED = "me/alzhanov/ELF/Translator$Compiled";
+    private static final String RUN_DESCRIPTOR = "([I[BL" + INTERPRETER + ";I)J";
+
+    // The locals of run, the register n being in REGISTERS + n.
+    private static final int THIS = 0, X = 1, MEMORY = 2, INTERPRETER_LOCAL = 3, BUDGET = 4, COUNT = 5, NEXT = 6,
+            INDEX = 7, REGISTERS = 7, LOCALS = REGISTERS + 32;
+
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14,
+            ILOAD = 0x15, ALOAD = 0x19, ALOAD_0 = 0x2A, IALOAD = 0x2E, BALOAD = 0x33, ISTORE = 0x36, IASTORE = 0x4F,
+            POP = 0x57,
+            IADD = 0x60, ISUB = 0x64, IMUL = 0x68, ISHL = 0x78, LSHL = 0x79, ISHR = 0x7A, IUSHR = 0x7C, IAND = 0x7E,
+            LAND = 0x7F, IOR = 0x80, LOR = 0x81, IXOR = 0x82, IINC = 0x84, I2L = 0x85,
+            IFLT = 0x9B, IFGE = 0x9C, IFGT = 0x9D, IFNE = 0x9A, IF_ICMPEQ = 0x9F, IF_ICMPNE = 0xA0, IF_ICMPLT = 0xA1,
+            IF_ICMPGE = 0xA2, GOTO = 0xA7, LRETURN = 0xAD, RETURN = 0xB1, INVOKEVIRTUAL = 0xB6, INVOKESPECIAL = 0xB7,
+            INVOKESTATIC = 0xB8;
+
+    private final List<Block> region;
+    private final int base;
+    private final int memorySize;
+
+    private final Bytes pool = new Bytes();
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int constantCount = 1;
+
+    private final Bytes code = new Bytes();
+    private final List<Integer> labels = new ArrayList<>();
+    /** The positions of the jumps, each followed by the label it jumps to. */
+    private final List<Integer> jumps = new ArrayList<>();
+    private final SortedSet<Integer> frames = new TreeSet<>();
+    private final Map<Integer, Integer> blockLabels = new HashMap<>();
+    private final List<int[]> exits = new ArrayList<>();
+    private final boolean[] written = new boolean[32];
+    private final int epilogue;
+
+    private Translator(List<Block> region, int base, int memorySize) {
+        this.region = region;
+        this.base = base;
+        this.memorySize = memorySize;
+        for (Block block : region) blockLabels.put(block.address, newLabel());
+        epilogue = newLabel();
+    }
+
+    /**
+     * Returns the translation of the blocks, starting with the first, or null if it is too large to be compiled.
+     */
+    static Compiled translate(List<Block> region, int base, int memorySize) {
+        for (int blocks = region.size(); blocks > 0; blocks /= 2) {
+            byte[] classFile = new Translator(region.subList(0, blocks), base, memorySize).classFile();
+            if (classFile != null) return define(classFile);
+        }
+        return null;
+    }
+
+    private static Compiled define(byte[] classFile) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (Compiled) lookup.lookupClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] classFile() {
+        push(0);
+        local(ISTORE, COUNT);
+        push(0);
+        local(ISTORE, NEXT);
+        push(0);
+        local(ISTORE, INDEX);
+        for (int reg = 1; reg < 32; reg++) {
+            local(ALOAD, X);
+            push(reg);
+            code.u1(IALOAD);
+            local(ISTORE, REGISTERS + reg);
+        }
+        for (Block block : region) {
+            bind(blockLabels.get(block.address));
+            translate(block);
+        }
+        for (int[] exit : exits) {
+            bind(exit[0]);
+            if (exit[1] != 0) increment(exit[1]);
+            push(exit[2]);
+            local(ISTORE, NEXT);
+            jump(GOTO, epilogue);
+        }
+        bind(epilogue);
+        for (int reg = 1; reg < 32; reg++) {
+            if (!written[reg]) continue;
+            local(ALOAD, X);
+            push(reg);
+            local(ILOAD, REGISTERS + reg);
+            code.u1(IASTORE);
+        }
+        local(ILOAD, COUNT);
+        code.u1(I2L);
+        push(32);
+        code.u1(LSHL);
+        local(ILOAD, NEXT);
+        code.u1(I2L);
+        code.u1(LDC2_W).u2(longConstant(0xFFFFFFFFL));
+        code.u1(LAND);
+        code.u1(LOR);
+        code.u1(LRETURN);
+        if (code.length >= MAX_CODE_LENGTH) return null;
+        for (int i = 0; i < jumps.size(); i += 2) {
+            int at = jumps.get(i);
+            code.set2(at + 1, labels.get(jumps.get(i + 1)) - at);
+        }
+        return assemble();
+    }
+
+    private void translate(Block block) {
+        int[] ops = block.ops;
+        int length = ops.length / 2;
+        for (int i = 0; i < ops.length; i += 2) {
+            int op = ops[i];
+            int imm = ops[i + 1];
+            int rd = op >>> 8 & 0xFF;
+            int rs1 = op >>> 16 & 0xFF;
+            int rs2 = op >>> 24;
+            int pc = block.address + (i << 1);
+            // The instructions of the block executed before this one.
+            int done = i >> 1;
+            switch (op & 0xFF) {
+                case NOP:
+                case FENCE_I:
+                    break;
+                case LI:
+                    push(imm);
+                    store(rd);
+                    break;
+                case JAL:
+                    if (rd != SCRATCH) {
+                        push(pc + 4);
+                        store(rd);
+                    }
+                    transfer(length, imm);
+                    return;
+                case JALR:
+                    load(rs1);
+                    push(imm);
+                    code.u1(IADD);
+                    push(~1);
+                    code.u1(IAND);
+                    local(ISTORE, NEXT);
+                    if (rd != SCRATCH) {
+                        push(pc + 4);
+                        store(rd);
+                    }
+                    increment(length);
+                    jump(GOTO, epilogue);
+                    return;
+                case BEQ: case BNE: case BLT: case BGE: case BLTU: case BGEU: {
+                    int taken = newLabel();
+                    load(rs1);
+                    load(rs2);
+                    switch (op & 0xFF) {
+                        case BEQ: jump(IF_ICMPEQ, taken); break;
+                        case BNE: jump(IF_ICMPNE, taken); break;
+                        case BLT: jump(IF_ICMPLT, taken); break;
+                        case BGE: jump(IF_ICMPGE, taken); break;
+                        case BLTU:
+                            invoke(INVOKESTATIC, "java/lang/Integer", "compareUnsigned", "(II)I");
+                            jump(IFLT, taken);
+                            break;
+                        default:
+                            invoke(INVOKESTATIC, "java/lang/Integer", "compareUnsigned", "(II)I");
+                            jump(IFGE, taken);
+                            break;
+                    }
+                    transfer(length, block.end);
+                    bind(taken);
+                    transfer(length, imm);
+                    return;
+                }
+                case LB: case LH: case LW: case LBU: case LHU: {
+                    int size = (op & 0xFF) == LW ? 4 : (op & 0xFF) == LH || (op & 0xFF) == LHU ? 2 : 1;
+                    index(rs1, imm, size, exit(done, pc));
+                    if (rd == SCRATCH) break;
+                    local(ALOAD, MEMORY);
+                    local(ILOAD, INDEX);
+                    switch (op & 0xFF) {
+                        case LB:
+                            code.u1(BALOAD);
+                            break;
+                        case LBU:
+                            code.u1(BALOAD);
+                            push(0xFF);
+                            code.u1(IAND);
+                            break;
+                        case LH:
+                            invoke(INVOKESTATIC, INTERPRETER, "loadHalf", "([BI)I");
+                            break;
+                        case LHU:
+                            invoke(INVOKESTATIC, INTERPRETER, "loadHalf", "([BI)I");
+                            push(0xFFFF);
+                            code.u1(IAND);
+                            break;
+                        default:
+                            invoke(INVOKESTATIC, INTERPRETER, "loadWord", "([BI)I");
+                            break;
+                    }
+                    store(rd);
+                    break;
+                }
+                case SB: case SH: case SW: {
+                    int size = (op & 0xFF) == SW ? 4 : (op & 0xFF) == SH ? 2 : 1;
+                    index(rs1, imm, size, exit(done, pc));
+                    local(ALOAD, INTERPRETER_LOCAL);
+                    local(ILOAD, INDEX);
+                    load(rs2);
+                    invoke(INVOKEVIRTUAL, INTERPRETER, size == 4 ? "storeWord" : size == 2 ? "storeHalf" : "storeByte", "(II)Z");
+                    jump(IFNE, exit(done + 1, pc + 4));
+                    break;
+                }
+                case ECALL:
+                case EBREAK:
+                case ILLEGAL:
+                case FETCH_FAULT:
+                    jump(GOTO, exit(done, pc));
+                    return;
+                default: {
+                    load(rs1);
+                    if ((op & 0xFF) >= ADDI && (op & 0xFF) <= SRAI) {
+                        push(imm);
+                    } else {
+                        load(rs2);
+                    }
+                    arithmetic(op & 0xFF);
+                    store(rd);
+                    break;
+                }
+            }
+        }
+        transfer(length, block.end);
+    }
+
+    /** Emits the operation of the op on the two operands on the stack. */
+    private void arithmetic(int op) {
+        switch (op) {
+            case ADDI: case ADD: code.u1(IADD); break;
+            case SUB: code.u1(ISUB); break;
+            case XORI: case XOR: code.u1(IXOR); break;
+            case ORI: case OR: code.u1(IOR); break;
+            case ANDI: case AND: code.u1(IAND); break;
+            case SLLI: case SLL: code.u1(ISHL); break;
+            case SRLI: case SRL: code.u1(IUSHR); break;
+            case SRAI: case SRA: code.u1(ISHR); break;
+            case MUL: code.u1(IMUL); break;
+            case SLTI: case SLT: helper("slt"); break;
+            case SLTIU: case SLTU: helper("sltu"); break;
+            case MULH: helper("mulh"); break;
+            case MULHSU: helper("mulhsu"); break;
+            case MULHU: helper("mulhu"); break;
+            case DIV: helper("div"); break;
+            case DIVU: helper("divu"); break;
+            case REM: helper("rem"); break;
+            case REMU: helper("remu"); break;
+            default: throw new AssertionError("Bad op " + op);
+        }
+    }
+
+    private void helper(String name) {
+        invoke(INVOKESTATIC, INTERPRETER, name, "(II)I");
+    }
+
+    /**
+     * Emits the memory index of rs1 + imm into INDEX, going to the fault label if size bytes there are not all in the
+     * memory.
+     */
+    private void index(int rs1, int imm, int size, int fault) {
+        load(rs1);
+        push(imm - base);
+        code.u1(IADD);
+        local(ISTORE, INDEX);
+        local(ILOAD, INDEX);
+        push(memorySize - size);
+        invoke(INVOKESTATIC, "java/lang/Integer", "compareUnsigned", "(II)I");
+        jump(IFGT, fault);
+    }
+
+    /**
+     * Emits the end of a block of the length going to the target: a jump to it if it is in the region and the budget
+     * is not used up, and an exit otherwise.
+     */
+    private void transfer(int length, int target) {
+        increment(length);
+        Integer label = blockLabels.get(target);
+        if (label != null) {
+            local(ILOAD, COUNT);
+            local(ILOAD, BUDGET);
+            jump(IF_ICMPGE, exit(0, target));
+            jump(GOTO, label);
+        } else {
+            push(target);
+            local(ISTORE, NEXT);
+            jump(GOTO, epilogue);
+        }
+    }
+
+    /**
+     * Returns the label of an exit stub adding the instructions to the count and returning the PC.
+     */
+    private int exit(int instructions, int pc) {
+        int label = newLabel();
+        exits.add(new int[]{label, instructions, pc});
+        return label;
+    }
+
+    private void load(int reg) {
+        if (reg == 0) {
+            push(0);
+        } else {
+            local(ILOAD, REGISTERS + reg);
+        }
+    }
+
+    private void store(int reg) {
+        if (reg == 0 || reg == SCRATCH) {
+            code.u1(POP);
+        } else {
+            local(ISTORE, REGISTERS + reg);
+            written[reg] = true;
+        }
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5) {
+            code.u1(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            code.u1(BIPUSH).u1(value);
+        } else if (value == (short) value) {
+            code.u1(SIPUSH).u2(value);
+        } else {
+            int index = constant("I" + value, 1, () -> pool.u1(3).u4(value));
+            if (index < 256) {
+                code.u1(LDC).u1(index);
+            } else {
+                code.u1(LDC_W).u2(index);
+            }
+        }
+    }
+
+    private void local(int opcode, int slot) {
+        code.u1(opcode).u1(slot);
+    }
+
+    private void increment(int instructions) {
+        code.u1(IINC).u1(COUNT).u1(instructions);
+    }
+
+    private void invoke(int opcode, String owner, String name, String descriptor) {
+        code.u1(opcode).u2(methodRef(owner, name, descriptor));
+    }
+
+    private int newLabel() {
+        labels.add(-1);
+        return labels.size() - 1;
+    }
+
+    private void bind(int label) {
+        labels.set(label, code.length);
+        frames.add(code.length);
+    }
+
+    private void jump(int opcode, int label) {
+        jumps.add(code.length);
+        jumps.add(label);
+        code.u1(opcode).u2(0);
+    }
+
+    private byte[] assemble() {
+        int thisClass = classRef(CLASS_NAME);
+        int superClass = classRef("java/lang/Object");
+        int compiled = classRef(COMPILED);
+        int codeName = utf8("Code");
+        int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+
+        Bytes stackMap = new Bytes();
+        stackMap.u2(frames.size());
+        int previous = -1;
+        for (int position : frames) {
+            // A full frame of the locals initialized on entry and an empty stack.
+            stackMap.u1(255).u2(position - previous - 1).u2(LOCALS);
+            stackMap.u1(7).u2(thisClass).u1(7).u2(classRef("[I")).u1(7).u2(classRef("[B")).u1(7).u2(classRef(INTERPRETER));
+            for (int slot = BUDGET; slot < LOCALS; slot++) stackMap.u1(1);
+            stackMap.u2(0);
+            previous = position;
+        }
+
+        Bytes methods = new Bytes();
+        methods.u2(2);
+        methods.u2(0x0001).u2(utf8("<init>")).u2(utf8("()V")).u2(1);
+        methods.u2(codeName).u4(17).u2(1).u2(1).u4(5);
+        methods.u1(ALOAD_0).u1(INVOKESPECIAL).u2(objectInit);
+        methods.u1(RETURN).u2(0).u2(0);
+        methods.u2(0x0001).u2(utf8("run")).u2(utf8(RUN_DESCRIPTOR)).u2(1);
+        int stackMapName = utf8("StackMapTable");
+        methods.u2(codeName).u4(2 + 2 + 4 + code.length + 2 + 2 + 6 + stackMap.length);
+        methods.u2(8).u2(LOCALS).u4(code.length).append(code).u2(0).u2(1);
+        methods.u2(stackMapName).u4(stackMap.length).append(stackMap);
+
+        Bytes classFile = new Bytes();
+        classFile.u4(0xCAFEBABE).u2(0).u2(61);
+        classFile.u2(constantCount).append(pool);
+        // ACC_FINAL | ACC_SUPER
+        classFile.u2(0x0030).u2(thisClass).u2(superClass).u2(1).u2(compiled);
+        classFile.u2(0);
+        classFile.append(methods);
+        classFile.u2(0);
+        return Arrays.copyOf(classFile.data, classFile.length);
+    }
+
+    private int constant(String key, int slots, Runnable write) {
+        Integer index = constants.get(key);
+        if (index == null) {
+            write.run();
+            index = constantCount;
+            constantCount += slots;
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    private int utf8(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return constant("U" + value, 1, () -> pool.u1(1).u2(bytes.length).append(bytes, bytes.length));
+    }
+
+    private int classRef(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, 1, () -> pool.u1(7).u2(nameIndex));
+    }
+
+    private int longConstant(long value) {
+        return constant("J" + value, 2, () -> pool.u1(5).u4((int) (value >>> 32)).u4((int) value));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + descriptor, 1, () -> pool.u1(12).u2(nameIndex).u2(descriptorIndex));
+        return constant("M" + owner + "." + name + descriptor, 1, () -> pool.u1(10).u2(ownerIndex).u2(nameAndType));
+    }
+
+    /** A growable big-endian byte array. */
+    private static final class Bytes {
+        byte[] data = new byte[256];
+        int length;
+
+        Bytes u1(int value) {
+            if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+            data[length++] = (byte) value;
+            return this;
+        }
+
+        Bytes u2(int value) {
+            return u1(value >>> 8).u1(value);
+        }
+
+        Bytes u4(int value) {
+            return u2(value >>> 16).u2(value);
+        }
+
+        Bytes append(byte[] bytes, int count) {
+            for (int i = 0; i < count; i++) u1(bytes[i]);
+            return this;
+        }
+
+        Bytes append(Bytes bytes) {
+            return append(bytes.data, bytes.length);
+        }
+
+        void set2(int at, int value) {
+            data[at] = (byte) (value >>> 8);
+            data[at + 1] = (byte) value;
+        }
+    }
+}
@@ -3,24 +3,48 @@ package net.fornwall.jelf;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.Buffer;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 
 class BackingFile {
     private final ByteArrayInputStream byteArray;
-    private final MappedByteBuffer mappedByteBuffer;
+    private final ByteBuffer mappedByteBuffer;
     private final long mbbStartPosition;
+    /** The whole file, used to hand out views with {@link #slice(long, int)}. Its position is never moved. */
+    private final ByteBuffer contents;
 
-    public BackingFile(ByteArrayInputStream byteArray) {
-        this.byteArray = byteArray;
+    public BackingFile(byte[] data) {
+        this.byteArray = new ByteArrayInputStream(data);
         this.mappedByteBuffer = null;
         this.mbbStartPosition = -1;
+        this.contents = ByteBuffer.wrap(data);
     }
 
-    public BackingFile(MappedByteBuffer mappedByteBuffer) {
+    /**
+     * Reads the file from the remaining bytes of the buffer in place, which is typically a mapped file or a slice of
+     * one. The position of the buffer passed in is left alone.
+     */
+    public BackingFile(ByteBuffer buffer) {
         this.byteArray = null;
-        this.mappedByteBuffer = mappedByteBuffer;
+        this.mappedByteBuffer = buffer.slice();
         this.mbbStartPosition = 0;
         ((Buffer)mappedByteBuffer).position((int) mbbStartPosition);
+        this.contents = mappedByteBuffer.duplicate();
+        ((Buffer)contents).position((int) mbbStartPosition);
+    }
+
+    public long length() {
+        return contents.limit();
+    }
+
+    /**
+     * Returns a read-only big-endian view of length bytes starting at offset, sharing the file contents without a copy.
+     */
+    public ByteBuffer slice(long offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > contents.limit())
+            throw new ElfException("Slice [" + offset + ", " + (offset + length) + ") is outside file of " + contents.limit() + " bytes");
+        ByteBuffer view = contents.duplicate();
+        ((Buffer)view).limit((int) (offset + length)).position((int) offset);
+        return view.slice().asReadOnlyBuffer();
     }
 
     public void seek(long offset) {
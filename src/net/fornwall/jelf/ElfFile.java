@@ -1,15 +1,18 @@
 package net.fornwall.jelf;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An ELF (Executable and Linkable Format) file that can be a relocatable, executable, shared or core file.
@@ -20,6 +23,7 @@ import java.util.List;
  *     <li>{@link #from(byte[])}</li>
  *     <li>{@link #from(InputStream)}</li>
  *     <li>{@link #from(MappedByteBuffer)}</li>
+ *     <li>{@link #from(ByteBuffer)}</li>
  * </ul>
  * <p>
  * Resources about ELF files:
@@ -174,6 +178,10 @@ public final class ElfFile {
      */
     private short sh_string_ndx; // Elf32_Half
 
+    /**
+     * The section header table, decoded when the file is opened.
+     */
+    final ElfSectionHeaderTable sectionHeaders;
     /**
      * MemoizedObject array of section headers associated with this ELF file.
      */
@@ -182,6 +190,14 @@ public final class ElfFile {
      * MemoizedObject array of program headers associated with this ELF file.
      */
     private MemoizedObject<ElfSegment>[] programHeaders;
+    /**
+     * Sorted index of the {@link ElfSegment#PT_LOAD} program headers, built on first address translation.
+     */
+    private ElfLoadSegmentIndex loadSegmentIndex;
+    /**
+     * Index of both symbol tables by address, built on first lookup of a symbol by address.
+     */
+    private volatile ElfSymbolIndex symbolIndex;
 
     /**
      * Used to cache symbol table lookup.
@@ -194,6 +210,13 @@ public final class ElfFile {
 
     private ElfDynamicSection dynamicSection;
 
+    /**
+     * Used to cache the hash sections indexing the dynamic symbol table, resolved on first name lookup.
+     */
+    private boolean hashSectionsResolved;
+    private ElfGnuHashTable gnuHashTable;
+    private ElfHashTable hashTable;
+
     /**
      * Returns the section header at the specified index. The section header at index 0 is defined as being a undefined
      * section.
@@ -203,13 +226,11 @@ public final class ElfFile {
     }
 
     public List<ElfSection> sectionsOfType(int sectionType) throws ElfException {
-        if (num_sh < 2) return Collections.emptyList();
-        List<ElfSection> result = new ArrayList<>();
-        for (int i = 1; i < num_sh; i++) {
-            ElfSection section = getSection(i);
-            if (section.header.type == sectionType) {
-                result.add(section);
-            }
+        int[] indices = sectionHeaders.indicesOfType(sectionType);
+        if (indices.length == 0) return Collections.emptyList();
+        List<ElfSection> result = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            result.add(getSection(index));
         }
         return result;
     }
@@ -265,11 +286,8 @@ public final class ElfFile {
     }
 
     public ElfSection firstSectionByType(int type) throws ElfException {
-        for (int i = 1; i < num_sh; i++) {
-            ElfSection sh = getSection(i);
-            if (sh.header.type == type) return sh;
-        }
-        return null;
+        int[] indices = sectionHeaders.indicesOfType(type);
+        return (indices.length == 0) ? null : getSection(indices[0]);
     }
 
     public <T extends ElfSection> T firstSectionByType(Class<T> type) throws ElfException {
@@ -281,15 +299,15 @@ public final class ElfFile {
     }
 
     public ElfSection firstSectionByName(String sectionName) throws ElfException {
-        for (int i = 1; i < num_sh; i++) {
-            ElfSection sh = getSection(i);
-            if (sectionName.equals(sh.header.getName())) return sh;
-        }
-        return null;
+        int index = sectionHeaders.indexOfName(sectionName);
+        return (index == -1) ? null : getSection(index);
     }
 
     /**
      * Returns the elf symbol with the specified name or null if one is not found.
+     * <p>
+     * The dynamic symbol table is searched through its {@link ElfGnuHashTable} or {@link ElfHashTable} section if the
+     * file has one, and the symbol table through a name index built on first use.
      */
     public ElfSymbol getELFSymbol(String symbolName) throws ElfException, IOException {
         if (symbolName == null) return null;
@@ -297,69 +315,136 @@ public final class ElfFile {
         // Check dynamic symbol table for symbol name.
         ElfSymbolTableSection sh = getDynamicSymbolTableSection();
         if (sh != null) {
-            int numSymbols = sh.symbols.length;
-            for (int i = 0; i < Math.ceil(numSymbols / 2); i++) {
-                ElfSymbol symbol = sh.symbols[i];
-                if (symbolName.equals(symbol.getName())) {
-                    return symbol;
-                } else if (symbolName.equals((symbol = sh.symbols[numSymbols - 1 - i]).getName())) {
-                    return symbol;
-                }
-            }
+            ElfSymbol symbol = lookupHashed(symbolName, sh);
+            if (symbol != null) return symbol;
         }
 
         // Check symbol table for symbol name.
         sh = getSymbolTableSection();
         if (sh != null) {
-            int numSymbols = sh.symbols.length;
-            for (int i = 0; i < Math.ceil(numSymbols / 2); i++) {
-                ElfSymbol symbol = sh.symbols[i];
-                if (symbolName.equals(symbol.getName())) {
-                    return symbol;
-                } else if (symbolName.equals((symbol = sh.symbols[numSymbols - 1 - i]).getName())) {
-                    return symbol;
+            return sh.lookupByName(symbolName);
+        }
+        return null;
+    }
+
+    /**
+     * Looks up each of the specified names as by {@link #getELFSymbol(String)}. The returned map iterates in the order
+     * of the given names and has no entries for names which are not found.
+     */
+    public Map<String, ElfSymbol> lookupAll(Collection<String> symbolNames) throws ElfException, IOException {
+        Map<String, ElfSymbol> result = new LinkedHashMap<>();
+        for (String symbolName : symbolNames) {
+            ElfSymbol symbol = getELFSymbol(symbolName);
+            if (symbol != null) result.put(symbolName, symbol);
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a symbol through the hash section indexing the specified symbol table, preferring {@code .gnu.hash}
+     * over {@code .hash}. Falls back to the symbol table's own name index when neither is present, and when
+     * {@code .gnu.hash} misses, as it leaves out the undefined and local symbols, such as imported functions.
+     */
+    private ElfSymbol lookupHashed(String symbolName, ElfSymbolTableSection symbolTable) throws ElfException {
+        if (!hashSectionsResolved) {
+            for (ElfSection section : sectionsOfType(ElfSectionHeader.SHT_GNU_HASH)) {
+                if (getSection(section.header.link) == symbolTable) {
+                    gnuHashTable = (ElfGnuHashTable) section;
+                    break;
+                }
+            }
+            for (ElfSection section : sectionsOfType(ElfSectionHeader.SHT_HASH)) {
+                if (getSection(section.header.link) == symbolTable) {
+                    hashTable = (ElfHashTable) section;
+                    break;
                 }
             }
+            hashSectionsResolved = true;
         }
-        return null;
+        if (gnuHashTable != null) {
+            ElfSymbol symbol = gnuHashTable.lookupSymbol(symbolName, symbolTable);
+            return (symbol != null) ? symbol : symbolTable.lookupByName(symbolName);
+        }
+        if (hashTable != null) return hashTable.lookupSymbol(symbolName, symbolTable);
+        return symbolTable.lookupByName(symbolName);
     }
 
     /**
      * Returns the elf symbol with the specified address or null if one is not found. 'address' is relative to base of
      * shared object for .so's.
+     * <p>
+     * The first symbol of the dynamic symbol table containing the address is returned, else the first of the symbol
+     * table, found through the {@link #symbolIndex()}.
      */
     public ElfSymbol getELFSymbol(long address) throws ElfException {
-        // Check dynamic symbol table for address.
-        ElfSymbol symbol;
-        long value;
-
-        ElfSymbolTableSection sh = getDynamicSymbolTableSection();
-        if (sh != null) {
-            int numSymbols = sh.symbols.length;
-            for (int i = 0; i < numSymbols; i++) {
-                symbol = sh.symbols[i];
-                value = symbol.st_value;
-                if (address >= value && address < value + symbol.st_size) return symbol;
-            }
-        }
+        ElfSymbolIndex index = symbolIndex();
+        int id = index.find(address);
+        return id == -1 ? null : index.symbol(id);
+    }
 
-        // Check symbol table for symbol name.
-        sh = getSymbolTableSection();
-        if (sh != null) {
-            int numSymbols = sh.symbols.length;
-            for (int i = 0; i < numSymbols; i++) {
-                symbol = sh.symbols[i];
-                value = symbol.st_value;
-                if (address >= value && address < value + symbol.st_size) return symbol;
+    /**
+     * Returns the index of both symbol tables by address, for looking up many addresses at once.
+     */
+    public ElfSymbolIndex symbolIndex() throws ElfException {
+        ElfSymbolIndex index = symbolIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = symbolIndex;
+                if (index == null) symbolIndex = index = new ElfSymbolIndex(this);
             }
         }
-        return null;
+        return index;
     }
 
     public ElfSegment getProgramHeader(int index) {
         return programHeaders[index].getValue();
     }
 
+    synchronized ElfLoadSegmentIndex loadSegments() {
+        return (loadSegmentIndex != null) ? loadSegmentIndex : (loadSegmentIndex = new ElfLoadSegmentIndex(this));
+    }
+
+    /**
+     * Returns a read-only view, in the byte order of this file, of length bytes of memory starting at the virtual
+     * address. The range must lie within a single {@link ElfSegment#PT_LOAD} segment.
+     * <p>
+     * A range backed by the file shares its contents without a copy. A range reaching into the zero-filled tail of a
+     * segment whose memory size exceeds its file size, such as .bss, is returned as a new buffer with that part zeroed.
+     */
+    public ByteBuffer sliceAt(long virtualAddress, int length) throws ElfException {
+        ElfLoadSegmentIndex segments = loadSegments();
+        int i = segments.find(virtualAddress);
+        if (i == -1 || virtualAddress + length > segments.mem_end[i])
+            throw new ElfException("No single loadable segment contains [0x" + Long.toHexString(virtualAddress) + ", 0x" + Long.toHexString(virtualAddress + length) + ")");
+        long relativeOffset = virtualAddress - segments.virtual_address[i];
+        if (relativeOffset + length <= segments.file_size[i]) {
+            return parser.slice(segments.offset[i] + relativeOffset, length);
+        }
+        ByteBuffer result = ByteBuffer.allocate(length).order(parser.byteOrder());
+        readAt(virtualAddress, result);
+        result.flip();
+        return result.asReadOnlyBuffer().order(result.order());
+    }
+
+    /**
+     * Copies memory starting at the virtual address into the buffer, up to its remaining space or the end of the
+     * {@link ElfSegment#PT_LOAD} segment containing the address, whichever comes first. Memory past the file size of the
+     * segment reads as zeros.
+     *
+     * @return the number of bytes copied
+     */
+    public int readAt(long virtualAddress, ByteBuffer dst) throws ElfException {
+        ElfLoadSegmentIndex segments = loadSegments();
+        int i = segments.find(virtualAddress);
+        if (i == -1) throw new ElfException("Cannot find segment for address " + Long.toHexString(virtualAddress));
+        int length = (int) Math.min(dst.remaining(), segments.mem_end[i] - virtualAddress);
+        long relativeOffset = virtualAddress - segments.virtual_address[i];
+        int fromFile = (int) Math.max(0, Math.min(length, segments.file_size[i] - relativeOffset));
+        if (fromFile > 0) dst.put(parser.slice(segments.offset[i] + relativeOffset, fromFile));
+        for (int zeroed = fromFile; zeroed < length; zeroed++) dst.put((byte) 0);
+        return length;
+    }
+
     public static ElfFile from(InputStream in) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         int totalRead = 0;
@@ -402,13 +487,21 @@ public final class ElfFile {
     }
 
     public static ElfFile from(byte[] buffer) throws ElfException, IOException {
-        return new ElfFile(new BackingFile(new ByteArrayInputStream(buffer)));
+        return new ElfFile(new BackingFile(buffer));
     }
 
     public static ElfFile from(MappedByteBuffer mappedByteBuffer) throws ElfException, IOException {
         return new ElfFile(new BackingFile(mappedByteBuffer));
     }
 
+    /**
+     * Parses the ELF file held in the remaining bytes of the buffer, such as a member of a mapped archive, without
+     * copying it.
+     */
+    public static ElfFile from(ByteBuffer buffer) throws ElfException, IOException {
+        return new ElfFile(new BackingFile(buffer));
+    }
+
     public final ElfParser parser;
 
     private ElfFile(BackingFile backingFile) throws ElfException, IOException {
@@ -455,13 +548,14 @@ public final class ElfFile {
                     + " (the actual index of the section name string table section is contained in the sh_link field of the section header at index 0)");
         }
 
+        sectionHeaders = new ElfSectionHeaderTable(parser, sh_offset, num_sh, sh_entry_size);
         sections = MemoizedObject.uncheckedArray(num_sh);
         for (int i = 0; i < num_sh; i++) {
-            final long sectionHeaderOffset = sh_offset + (i * sh_entry_size);
+            final int sectionIndex = i;
             sections[i] = new MemoizedObject<>() {
                 @Override
                 public ElfSection computeValue() throws ElfException {
-                    ElfSectionHeader elfSectionHeader = new ElfSectionHeader(parser, sectionHeaderOffset);
+                    ElfSectionHeader elfSectionHeader = new ElfSectionHeader(sectionHeaders, sectionIndex);
                     switch (elfSectionHeader.type) {
                         case ElfSectionHeader.SHT_DYNAMIC:
                             return new ElfDynamicSection(parser, elfSectionHeader);
@@ -475,6 +569,7 @@ public final class ElfFile {
                         case ElfSectionHeader.SHT_NOTE:
                             return new ElfNoteSection(parser, elfSectionHeader);
                         case ElfSectionHeader.SHT_RELA:
+                        case ElfSectionHeader.SHT_REL:
                             return new ElfRelocationSection(parser, elfSectionHeader);
                         case ElfSectionHeader.SHT_GNU_HASH:
                             return new ElfGnuHashTable(parser, elfSectionHeader);
@@ -485,6 +580,10 @@ public final class ElfFile {
             };
         }
 
+        if (sh_string_ndx != ElfSectionHeader.SHN_UNDEF) {
+            sectionHeaders.indexNames(getSectionNameStringTable());
+        }
+
         programHeaders = MemoizedObject.uncheckedArray(num_ph);
         for (int i = 0; i < num_ph; i++) {
             final long programHeaderOffset = ph_offset + (i * ph_entry_size);
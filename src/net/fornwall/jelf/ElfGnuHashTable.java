@@ -45,7 +45,7 @@ public class ElfGnuHashTable extends ElfSection {
 
     ElfSymbol lookupSymbol(String symbolName, ElfSymbolTableSection symbolTable) {
         if (chain == null) {
-            int chainSize = ((ElfSymbolTableSection) parser.elfFile.firstSectionByType(ElfSectionHeader.SHT_DYNSYM)).symbols.length - symbolOffset;
+            int chainSize = symbolTable.symbols.length - symbolOffset;
             chain = new int[chainSize];
             parser.seek(header.section_offset + 4*4 + bloomFilter.length*(ELFCLASS_BITS/8) + buckets.length * 4);
             for (int i = 0; i < chainSize; i++) {
@@ -0,0 +1,61 @@
+package net.fornwall.jelf;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The {@link ElfSegment#PT_LOAD} segments of an ELF file, sorted by virtual address into parallel primitive arrays so
+ * that the segment containing an address is found with a binary search.
+ */
+final class ElfLoadSegmentIndex {
+
+    final long[] virtual_address;
+    /** Exclusive end of each segment in memory, p_vaddr + p_memsz. */
+    final long[] mem_end;
+    final long[] file_size;
+    final long[] offset;
+    /** Index into the program header table of each segment. */
+    final int[] programHeaderIndex;
+
+    ElfLoadSegmentIndex(ElfFile elfFile) {
+        int count = 0;
+        Integer[] order = new Integer[elfFile.num_ph];
+        for (int i = 0; i < elfFile.num_ph; i++) {
+            ElfSegment ph = elfFile.getProgramHeader(i);
+            if (ph.type == ElfSegment.PT_LOAD && ph.mem_size > 0) order[count++] = i;
+        }
+        Arrays.sort(order, 0, count, Comparator.comparingLong(i -> elfFile.getProgramHeader(i).virtual_address));
+
+        virtual_address = new long[count];
+        mem_end = new long[count];
+        file_size = new long[count];
+        offset = new long[count];
+        programHeaderIndex = new int[count];
+        for (int i = 0; i < count; i++) {
+            ElfSegment ph = elfFile.getProgramHeader(order[i]);
+            virtual_address[i] = ph.virtual_address;
+            mem_end[i] = ph.virtual_address + ph.mem_size;
+            file_size[i] = Math.min(ph.file_size, ph.mem_size);
+            offset[i] = ph.offset;
+            programHeaderIndex[i] = order[i];
+        }
+    }
+
+    /**
+     * Returns the position in this index of the segment containing the address, or -1 if no segment contains it.
+     */
+    int find(long address) {
+        int low = 0;
+        int high = virtual_address.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (virtual_address[mid] <= address) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // high is now the last segment starting at or below the address.
+        return (high >= 0 && address < mem_end[high]) ? high : -1;
+    }
+}
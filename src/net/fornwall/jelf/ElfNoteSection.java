@@ -1,6 +1,6 @@
 package net.fornwall.jelf;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class ElfNoteSection extends ElfSection {
 
@@ -73,30 +73,32 @@ class ElfNoteSection extends ElfSection {
     ElfNoteSection(ElfParser parser, ElfSectionHeader header) throws ElfException {
         super(parser, header);
 
-        parser.seek(header.section_offset);
-        nameSize = parser.readInt();
-        descriptorSize = parser.readInt();
-        type = parser.readInt();
-        byte[] nameBytes = new byte[nameSize];
-        descriptorBytes = new byte[descriptorSize];
-        int bytesRead = parser.read(nameBytes);
-        if (bytesRead != nameSize) {
-            throw new ElfException("Error reading note name (read=" + bytesRead + ", expected=" + nameSize + ")");
+        ByteBuffer contents = contents();
+        nameSize = contents.getInt();
+        descriptorSize = contents.getInt();
+        type = contents.getInt();
+        if (contents.remaining() < nameSize) {
+            throw new ElfException("Error reading note name (available=" + contents.remaining() + ", expected=" + nameSize + ")");
         }
-        parser.skip(bytesRead % 4);
+        byte[] nameBytes = new byte[nameSize];
+        contents.get(nameBytes);
+        // The name is padded to a four-byte boundary.
+        contents.position(contents.position() + (-nameSize & 3));
 
+        if (contents.remaining() < descriptorSize) {
+            throw new ElfException("Error reading note descriptor (available=" + contents.remaining() + ", expected=" + descriptorSize + ")");
+        }
         switch (type) {
             case NT_GNU_ABI_TAG:
-                gnuAbiDescriptor = new GnuAbiDescriptor(parser.readInt(), parser.readInt(), parser.readInt(), parser.readInt());
+                int position = contents.position();
+                gnuAbiDescriptor = new GnuAbiDescriptor(contents.getInt(position), contents.getInt(position + 4), contents.getInt(position + 8), contents.getInt(position + 12));
                 break;
             default:
                 gnuAbiDescriptor = null;
         }
 
-        bytesRead = parser.read(descriptorBytes);
-        if (bytesRead != descriptorSize) {
-            throw new ElfException("Error reading note name (read=" + bytesRead + ", expected=" + descriptorSize + ")");
-        }
+        descriptorBytes = new byte[descriptorSize];
+        contents.get(descriptorBytes);
 
         name = new String(nameBytes, 0, nameSize-1); // unnecessary trailing 0
     }
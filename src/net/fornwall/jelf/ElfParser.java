@@ -1,5 +1,8 @@
 package net.fornwall.jelf;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Package internal class used for parsing ELF files.
  */
@@ -109,21 +112,40 @@ public class ElfParser {
      * address and computing the resulting file offset.
      */
     long virtualMemoryAddrToFileOffset(long address) {
-        for (int i = 0; i < elfFile.num_ph; i++) {
-            ElfSegment ph = elfFile.getProgramHeader(i);
-            if (address >= ph.virtual_address && address < (ph.virtual_address + ph.mem_size)) {
-                long relativeOffset = address - ph.virtual_address;
-                if (relativeOffset >= ph.file_size)
-                    throw new ElfException("Can not convert virtual memory address " + Long.toHexString(address) + " to file offset -" + " found segment " + ph
-                            + " but address maps to memory outside file range");
-                return ph.offset + relativeOffset;
-            }
-        }
-        throw new ElfException("Cannot find segment for address " + Long.toHexString(address));
+        ElfLoadSegmentIndex segments = elfFile.loadSegments();
+        int i = segments.find(address);
+        if (i == -1) throw new ElfException("Cannot find segment for address " + Long.toHexString(address));
+        long relativeOffset = address - segments.virtual_address[i];
+        if (relativeOffset >= segments.file_size[i])
+            throw new ElfException("Can not convert virtual memory address " + Long.toHexString(address) + " to file offset -" + " found segment " + elfFile.getProgramHeader(segments.programHeaderIndex[i])
+                    + " but address maps to memory outside file range");
+        return segments.offset[i] + relativeOffset;
     }
 
     public int read(byte[] data) {
         return backingFile.read(data);
     }
 
+    /**
+     * Returns a read-only view of length bytes at the specified file offset, in the byte order of the file. The view
+     * shares the file contents and does not move the position of this parser.
+     */
+    public ByteBuffer slice(long offset, int length) {
+        return backingFile.slice(offset, length).order(byteOrder());
+    }
+
+    /**
+     * The byte order corresponding to {@link ElfFile#encoding}.
+     */
+    public ByteOrder byteOrder() {
+        return elfFile.encoding == ElfFile.DATA_LSB ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    }
+
+    /**
+     * The size of the parsed file in bytes.
+     */
+    public long length() {
+        return backingFile.length();
+    }
+
 }
@@ -1,11 +1,109 @@
 package net.fornwall.jelf;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An ELF section containing relocation entries.
+ *
+ * This class represents either of two section types:
+ * <ul>
+ *     <li>{@link ElfSectionHeader#SHT_RELA}: Entries with an explicit addend (Elf32_Rela/Elf64_Rela). Normally named ".rela.*".</li>
+ *     <li>{@link ElfSectionHeader#SHT_REL}: Entries without an explicit addend (Elf32_Rel/Elf64_Rel), where the addend is
+ *     stored in the location being relocated and is reported here as 0. Normally named ".rel.*".</li>
+ * </ul>
+ *
+ * The entries are kept in parallel primitive arrays in file order, with {@link #find(long)} searching them by offset.
+ * The {@link ElfSectionHeader#info sh_info} of the header is the index of the section the relocations apply to and the
+ * {@link ElfSectionHeader#link sh_link} the index of the associated symbol table.
+ */
 public class ElfRelocationSection extends ElfSection {
 
+    /** r_offset of each entry. For relocatable files, the offset from the beginning of the section being relocated. */
+    private final long[] offsets;
+    /** r_info of each entry, holding the symbol table index and relocation type. */
+    private final long[] infos;
+    /** r_addend of each entry, 0 for {@link ElfSectionHeader#SHT_REL} entries. */
+    private final long[] addends;
+    /** Entry indices sorted by offset, with entries of equal offset in file order. */
+    private final int[] byOffset;
+    private final boolean is32;
+
     public ElfRelocationSection(ElfParser parser, ElfSectionHeader header) {
         super(parser, header);
 
-        int num_entries = (int) (header.size / header.entry_size);
+        is32 = parser.elfFile.objectSize == ElfFile.CLASS_32;
+        boolean hasAddend = header.type == ElfSectionHeader.SHT_RELA;
+        int wordSize = is32 ? 4 : 8;
+        long entrySize = header.entry_size != 0 ? header.entry_size : (hasAddend ? 3 : 2) * wordSize;
+        int num_entries = (int) (header.size / entrySize);
+
+        offsets = new long[num_entries];
+        infos = new long[num_entries];
+        addends = new long[num_entries];
+        ByteBuffer contents = contents();
+        for (int i = 0; i < num_entries; i++) {
+            int position = (int) (i * entrySize);
+            if (is32) {
+                offsets[i] = contents.getInt(position) & 0xFFFFFFFFL;
+                infos[i] = contents.getInt(position + 4) & 0xFFFFFFFFL;
+                if (hasAddend) addends[i] = contents.getInt(position + 8);
+            } else {
+                offsets[i] = contents.getLong(position);
+                infos[i] = contents.getLong(position + 8);
+                if (hasAddend) addends[i] = contents.getLong(position + 16);
+            }
+        }
+
+        Integer[] order = new Integer[num_entries];
+        for (int i = 0; i < num_entries; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> offsets[i]));
+        byOffset = new int[num_entries];
+        for (int i = 0; i < num_entries; i++) byOffset[i] = order[i];
     }
 
+    /** The number of relocation entries. */
+    public int size() {
+        return offsets.length;
+    }
+
+    public long getOffset(int entry) {
+        return offsets[entry];
+    }
+
+    public long getInfo(int entry) {
+        return infos[entry];
+    }
+
+    public long getAddend(int entry) {
+        return addends[entry];
+    }
+
+    /** ELF{32,64}_R_SYM: the index into the associated symbol table of the symbol the entry refers to. */
+    public int getSymbolIndex(int entry) {
+        return (int) (is32 ? infos[entry] >>> 8 : infos[entry] >>> 32);
+    }
+
+    /** ELF{32,64}_R_TYPE: the processor specific relocation type of the entry. */
+    public int getType(int entry) {
+        return (int) (is32 ? infos[entry] & 0xFF : infos[entry] & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the index of the first entry, in file order, with the specified offset, or -1 if there is none.
+     */
+    public int find(long offset) {
+        int low = 0;
+        int high = byOffset.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[byOffset[mid]] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < byOffset.length && offsets[byOffset[low]] == offset) ? byOffset[low] : -1;
+    }
 }
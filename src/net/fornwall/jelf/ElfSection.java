@@ -1,6 +1,11 @@
 package net.fornwall.jelf;
 
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
 public class ElfSection {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
     public final ElfSectionHeader header;
     private final ElfParser parser;
 
@@ -9,10 +14,28 @@ public class ElfSection {
         this.parser = parser;
     }
 
+    /**
+     * Returns a read-only view of the section contents in the byte order of the file. The view shares the file contents
+     * without a copy and has its own position, so it may be used independently of the parser and of other views.
+     * Sections of type {@link ElfSectionHeader#SHT_NOBITS} have no contents in the file and give an empty buffer.
+     */
+    public ByteBuffer contents() {
+        if (header.type == ElfSectionHeader.SHT_NOBITS) return EMPTY.duplicate().order(parser.byteOrder());
+        return parser.slice(header.section_offset, (int) header.size);
+    }
+
+    /**
+     * Returns a read-only view of the section contents as 32-bit words in the byte order of the file, such as the
+     * instructions of a code section. A trailing partial word is not included.
+     */
+    public IntBuffer contentsAsInts() {
+        return contents().asIntBuffer();
+    }
+
     public byte[] rawSection() {
-        parser.seek(header.section_offset);
-        byte[] data = new byte[(int) header.size];
-        parser.read(data);
+        ByteBuffer contents = contents();
+        byte[] data = new byte[contents.remaining()];
+        contents.get(data);
         return data;
     }
 }
@@ -1,7 +1,5 @@
 package net.fornwall.jelf;
 
-import java.io.IOException;
-
 /**
  * Class corresponding to the Elf32_Shdr/Elf64_Shdr struct.
  *
@@ -207,34 +205,33 @@ public class ElfSectionHeader {
      */
     public final long entry_size; // Elf32_Word
 
-    private final ElfFile elfHeader;
+    private final ElfSectionHeaderTable table;
+    private final int index;
 
     /**
-     * Reads the section header information located at offset.
+     * Creates the section header at the specified index of an already decoded section header table.
      */
-    ElfSectionHeader(final ElfParser parser, long offset) {
-        this.elfHeader = parser.elfFile;
-        parser.seek(offset);
+    ElfSectionHeader(ElfSectionHeaderTable table, int index) {
+        this.table = table;
+        this.index = index;
 
-        name_ndx = parser.readInt();
-        type = parser.readInt();
-        flags = parser.readIntOrLong();
-        address = parser.readIntOrLong();
-        section_offset = parser.readIntOrLong();
-        size = parser.readIntOrLong();
-        link = parser.readInt();
-        info = parser.readInt();
-        address_alignment = parser.readIntOrLong();
-        entry_size = parser.readIntOrLong();
+        name_ndx = table.name_ndx[index];
+        type = table.type[index];
+        flags = table.flags[index];
+        address = table.address[index];
+        section_offset = table.section_offset[index];
+        size = table.size[index];
+        link = table.link[index];
+        info = table.info[index];
+        address_alignment = table.address_alignment[index];
+        entry_size = table.entry_size[index];
     }
 
     /**
      * Returns the name of the section or null if the section has no name.
      */
     public String getName() {
-        if (name_ndx == 0) return null;
-        ElfStringTable tbl = elfHeader.getSectionNameStringTable();
-        return tbl.get(name_ndx);
+        return table.name(index);
     }
 
     @Override
@@ -0,0 +1,115 @@
+package net.fornwall.jelf;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The section header table of an ELF file, decoded in one pass into parallel primitive arrays indexed by section
+ * header table index.
+ * <p>
+ * Also holds the section name and section type indices used by {@link ElfFile#firstSectionByName(String)},
+ * {@link ElfFile#firstSectionByType(int)} and {@link ElfFile#sectionsOfType(int)}.
+ */
+final class ElfSectionHeaderTable {
+
+    private static final int[] NO_SECTIONS = new int[0];
+
+    final int[] name_ndx;
+    final int[] type;
+    final long[] flags;
+    final long[] address;
+    final long[] section_offset;
+    final long[] size;
+    final int[] link;
+    final int[] info;
+    final long[] address_alignment;
+    final long[] entry_size;
+
+    /** Decoded section names, null for unnamed sections. Filled in by {@link #indexNames(ElfStringTable)}. */
+    private final String[] names;
+    private final Map<String, Integer> indexByName = new HashMap<>();
+    private final Map<Integer, int[]> indicesByType = new HashMap<>();
+
+    /**
+     * Reads the whole table with a single read and decodes every entry from the resulting buffer.
+     */
+    ElfSectionHeaderTable(ElfParser parser, long offset, int count, int entrySize) throws ElfException {
+        ElfFile elfFile = parser.elfFile;
+        boolean is32 = elfFile.objectSize == ElfFile.CLASS_32;
+        int minEntrySize = is32 ? 40 : 64;
+        if (entrySize < minEntrySize)
+            throw new ElfException("Invalid section header entry size: " + entrySize);
+
+        byte[] data = new byte[count * entrySize];
+        parser.seek(offset);
+        int bytesRead = parser.read(data);
+        if (bytesRead != data.length)
+            throw new ElfException("Error reading section header table (read " + bytesRead + "bytes - expected to read " + data.length + "bytes)");
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(parser.byteOrder());
+
+        name_ndx = new int[count];
+        type = new int[count];
+        flags = new long[count];
+        address = new long[count];
+        section_offset = new long[count];
+        size = new long[count];
+        link = new int[count];
+        info = new int[count];
+        address_alignment = new long[count];
+        entry_size = new long[count];
+        names = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            buffer.position(i * entrySize);
+            name_ndx[i] = buffer.getInt();
+            type[i] = buffer.getInt();
+            flags[i] = is32 ? buffer.getInt() : buffer.getLong();
+            address[i] = is32 ? buffer.getInt() : buffer.getLong();
+            section_offset[i] = is32 ? buffer.getInt() : buffer.getLong();
+            size[i] = is32 ? buffer.getInt() : buffer.getLong();
+            link[i] = buffer.getInt();
+            info[i] = buffer.getInt();
+            address_alignment[i] = is32 ? buffer.getInt() : buffer.getLong();
+            entry_size[i] = is32 ? buffer.getInt() : buffer.getLong();
+        }
+
+        // Counts the sections of each type, then fills arrays of those sizes.
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 1; i < count; i++) counts.merge(type[i], 1, Integer::sum);
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) indicesByType.put(entry.getKey(), new int[entry.getValue()]);
+        Map<Integer, Integer> filled = new HashMap<>();
+        for (int i = 1; i < count; i++) indicesByType.get(type[i])[filled.merge(type[i], 1, Integer::sum) - 1] = i;
+    }
+
+    int count() {
+        return type.length;
+    }
+
+    /**
+     * Decodes all section names through the section name string table and indexes them. The first section with a
+     * given name wins, as when searching the table in order.
+     */
+    void indexNames(ElfStringTable sectionNameStringTable) {
+        for (int i = 1; i < names.length; i++) {
+            if (name_ndx[i] == 0) continue;
+            names[i] = sectionNameStringTable.get(name_ndx[i]);
+            indexByName.putIfAbsent(names[i], i);
+        }
+    }
+
+    String name(int index) {
+        return names[index];
+    }
+
+    /** Returns the index of the first section with the given name, or -1 if there is none. */
+    int indexOfName(String name) {
+        Integer index = indexByName.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /** Returns the indices, in table order, of all sections of the given type. Index 0 is never included. */
+    int[] indicesOfType(int sectionType) {
+        return indicesByType.getOrDefault(sectionType, NO_SECTIONS);
+    }
+}
@@ -1,6 +1,6 @@
 package net.fornwall.jelf;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * String table sections hold null-terminated character sequences, commonly called strings.
@@ -11,29 +11,26 @@ import java.io.IOException;
  */
 final public class ElfStringTable extends ElfSection {
 
-	/** The string table data. */
-	private final byte[] data;
+	/** The string table data, a view of the file contents. */
+	private final ByteBuffer data;
 	public final int numStrings;
 
-	/** Reads all the strings from [offset, length]. */
+	/** Counts the strings in [offset, length], which are read in place from the file. */
 	ElfStringTable(ElfParser parser, long offset, int length, ElfSectionHeader header) throws ElfException {
 		super(parser, header);
 
-		parser.seek(offset);
-		data = new byte[length];
-		int bytesRead = parser.read(data);
-		if (bytesRead != length)
-			throw new ElfException("Error reading string table (read " + bytesRead + "bytes - expected to " + "read " + data.length + "bytes)");
-
+		data = parser.slice(offset, length);
 		int stringsCount = 0;
-		for (byte datum : data) if (datum == '\0') stringsCount++;
+		for (int i = 0; i < data.limit(); i++) if (data.get(i) == '\0') stringsCount++;
 		numStrings = stringsCount;
 	}
 
 	public String get(int index) {
 		int endPtr = index;
-		while (data[endPtr] != '\0')
+		while (data.get(endPtr) != '\0')
 			endPtr++;
-		return new String(data, index, endPtr - index);
+		byte[] bytes = new byte[endPtr - index];
+		data.get(index, bytes);
+		return new String(bytes);
 	}
 }
@@ -0,0 +1,199 @@
+package net.fornwall.jelf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The symbols of an ELF file by address, for finding the symbol containing an address as
+ * {@link ElfFile#getELFSymbol(long)} does, one address or millions of them at a time.
+ * <p>
+ * The symbols of the dynamic symbol table followed by those of the symbol table are numbered by their position, their
+ * id. The address space is cut at every start and end of a symbol into intervals, each owned by the symbol of the
+ * lowest id containing it, which is the symbol a scan of the tables in order would find first. The intervals are kept
+ * sorted by address in parallel primitive arrays, so an address is found with a binary search, and a batch of addresses
+ * sorted by address is found with a single merge-join pass over them.
+ */
+public final class ElfSymbolIndex {
+    /** The addresses of a batch symbolized by one task. */
+    private static final int CHUNK = 1 << 16;
+    private static final int CHUNK_BITS = 16;
+
+    private final ElfSymbol[] symbols;
+    /** The start of each interval, the interval ending where the next one starts. */
+    private final long[] starts;
+    /** The id of the symbol owning each interval, or -1 for an interval of no symbol. */
+    private final int[] owners;
+
+    ElfSymbolIndex(ElfFile file) throws ElfException {
+        List<ElfSymbol> all = new ArrayList<>();
+        ElfSymbolTableSection dynamic = file.getDynamicSymbolTableSection();
+        if (dynamic != null) all.addAll(Arrays.asList(dynamic.symbols));
+        ElfSymbolTableSection table = file.getSymbolTableSection();
+        if (table != null) all.addAll(Arrays.asList(table.symbols));
+        symbols = all.toArray(new ElfSymbol[0]);
+
+        // The symbols containing any address, by start.
+        int count = 0;
+        Integer[] byStart = new Integer[symbols.length];
+        long[] bounds = new long[2 * symbols.length];
+        for (int id = 0; id < symbols.length; id++) {
+            ElfSymbol symbol = symbols[id];
+            if (symbol.st_value + symbol.st_size <= symbol.st_value) continue;
+            bounds[2 * count] = symbol.st_value;
+            bounds[2 * count + 1] = symbol.st_value + symbol.st_size;
+            byStart[count++] = id;
+        }
+        Arrays.sort(byStart, 0, count, (a, b) -> Long.compare(symbols[a].st_value, symbols[b].st_value));
+        Arrays.sort(bounds, 0, 2 * count);
+
+        long[] newStarts = new long[2 * count];
+        int[] newOwners = new int[2 * count];
+        int intervals = 0;
+        // The symbols containing the current interval by id, ended ones being removed once they come first.
+        PriorityQueue<Integer> active = new PriorityQueue<>();
+        int next = 0;
+        for (int i = 0; i < 2 * count; i++) {
+            long start = bounds[i];
+            if (i > 0 && start == bounds[i - 1]) continue;
+            while (next < count && symbols[byStart[next]].st_value <= start) active.add(byStart[next++]);
+            while (!active.isEmpty() && end(symbols[active.peek()]) <= start) active.poll();
+            int owner = active.isEmpty() ? -1 : active.peek();
+            if (intervals > 0 && newOwners[intervals - 1] == owner) continue;
+            newStarts[intervals] = start;
+            newOwners[intervals++] = owner;
+        }
+        starts = Arrays.copyOf(newStarts, intervals);
+        owners = Arrays.copyOf(newOwners, intervals);
+    }
+
+    private static long end(ElfSymbol symbol) {
+        return symbol.st_value + symbol.st_size;
+    }
+
+    /** The number of symbol ids, those of the dynamic symbol table first. */
+    public int size() {
+        return symbols.length;
+    }
+
+    public ElfSymbol symbol(int id) {
+        return symbols[id];
+    }
+
+    /**
+     * Returns the id of the symbol containing the address, or -1 if there is none.
+     */
+    public int find(long address) {
+        int interval = interval(address, 0);
+        return interval == -1 ? -1 : owners[interval];
+    }
+
+    /**
+     * Returns the last interval at or after from starting at or below the address, or -1 if there is none.
+     */
+    private int interval(long address, int from) {
+        int low = from;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= address) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Finds the symbols of the addresses in parallel on the common pool, see
+     * {@link #symbolize(long[], int[], long[], ForkJoinPool)}.
+     */
+    public void symbolize(long[] addresses, int[] ids, long[] offsets) {
+        symbolize(addresses, ids, offsets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the symbol of each address, storing its id, or -1 if no symbol contains it, in ids and the offset of the
+     * address from the symbol's value in offsets, at the index of the address. Each task takes a chunk of the
+     * addresses, sorts it unless it is already sorted, and merge-joins it with the intervals.
+     */
+    public void symbolize(long[] addresses, int[] ids, long[] offsets, ForkJoinPool pool) {
+        if (ids.length < addresses.length || offsets.length < addresses.length)
+            throw new IllegalArgumentException("The result arrays are shorter than the addresses");
+        if (addresses.length <= CHUNK) {
+            symbolize(addresses, 0, addresses.length, ids, offsets);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < addresses.length; start += CHUNK) {
+            int from = start;
+            int to = Math.min(addresses.length, start + CHUNK);
+            tasks.add(() -> {
+                symbolize(addresses, from, to, ids, offsets);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while symbolizing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to symbolize", e.getCause());
+        }
+    }
+
+    private void symbolize(long[] addresses, int from, int to, int[] ids, long[] offsets) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        boolean sorted = true;
+        for (int i = from; i < to; i++) {
+            if (i > from && addresses[i] < addresses[i - 1]) sorted = false;
+            min = Math.min(min, addresses[i]);
+            max = Math.max(max, addresses[i]);
+        }
+        int interval = -1;
+        if (sorted) {
+            for (int i = from; i < to; i++) {
+                interval = advance(interval, addresses[i]);
+                store(i, addresses[i], interval, ids, offsets);
+            }
+        } else if (max - min >= 0 && (max - min) >>> (63 - CHUNK_BITS) == 0) {
+            // Sorts the chunk as offsets from its lowest address, each with its position in the low bits.
+            long[] keys = new long[to - from];
+            for (int i = from; i < to; i++) keys[i - from] = (addresses[i] - min) << CHUNK_BITS | (i - from);
+            Arrays.sort(keys);
+            for (long key : keys) {
+                int i = from + (int) (key & (CHUNK - 1));
+                interval = advance(interval, addresses[i]);
+                store(i, addresses[i], interval, ids, offsets);
+            }
+        } else {
+            for (int i = from; i < to; i++) store(i, addresses[i], interval(addresses[i], 0), ids, offsets);
+        }
+    }
+
+    /**
+     * Returns the interval of the address, which is not below that of the previous address of the join, the interval
+     * given: a few steps forward, or a binary search of the rest for a longer way.
+     */
+    private int advance(int interval, long address) {
+        for (int step = 0; step < 8; step++) {
+            if (interval + 1 >= starts.length || starts[interval + 1] > address) return interval;
+            interval++;
+        }
+        return interval(address, interval);
+    }
+
+    private void store(int i, long address, int interval, int[] ids, long[] offsets) {
+        int id = interval == -1 ? -1 : owners[interval];
+        ids[i] = id;
+        offsets[i] = id == -1 ? 0 : address - symbols[id].st_value;
+    }
+}
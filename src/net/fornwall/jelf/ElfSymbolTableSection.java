@@ -13,6 +13,13 @@ public class ElfSymbolTableSection extends ElfSection {
 
     public final ElfSymbol[] symbols;
 
+    /**
+     * Open-addressing name index, built on first call to {@link #lookupByName(String)}. Each slot holds a symbol index
+     * plus one (zero marks an empty slot), with the name hash of that symbol kept alongside in {@link #slotHashes}.
+     */
+    private volatile int[] slots;
+    private int[] slotHashes;
+
     public ElfSymbolTableSection(ElfParser parser, ElfSectionHeader header) {
         super(parser, header);
 
@@ -23,4 +30,44 @@ public class ElfSymbolTableSection extends ElfSection {
             symbols[i] = new ElfSymbol(parser, symbolOffset, header.type);
         }
     }
+
+    /**
+     * Returns the first symbol in this table with the specified name, or null if there is none.
+     */
+    public ElfSymbol lookupByName(String name) {
+        if (slots == null) buildNameIndex();
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (slotHashes[slot] == hash) {
+                ElfSymbol symbol = symbols[slots[slot] - 1];
+                if (name.equals(symbol.getName())) return symbol;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void buildNameIndex() {
+        if (slots != null) return;
+        int capacity = Integer.highestOneBit(Math.max(symbols.length, 1) * 2 - 1) << 1;
+        int[] newSlots = new int[capacity];
+        int[] newHashes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < symbols.length; i++) {
+            if (symbols[i].st_name == 0) continue;
+            String name = symbols[i].getName();
+            if (name == null) continue;
+            int hash = name.hashCode();
+            int slot = mix(hash) & mask;
+            while (newSlots[slot] != 0) slot = (slot + 1) & mask;
+            newSlots[slot] = i + 1;
+            newHashes[slot] = hash;
+        }
+        slotHashes = newHashes;
+        slots = newSlots;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
 }